@@ -0,0 +1,173 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** A fixed-size bitmap that many threads can change at once without locks.
+ * <p>
+ * The bits are kept in an array of 64-bit words, and each change is a
+ * compare-and-set of the word that holds the bit.  In particular, set()
+ * reports whether the bit was clear, so two threads that both find the same
+ * free bit cannot both claim it: one of them sees set() fail and looks
+ * again.
+ * <p>
+ * The bitmap also remembers whether it has changed since it was last saved,
+ * and its bytes are laid out as in BitSet.toByteArray(), bit i being bit
+ * i % 8 of byte i / 8.
+ *
+ * @see FileSys
+ */
+public class AtomicBitmap {
+    /** The bits, 64 to a word; bit i is bit i % 64 of word i / 64. */
+    private final AtomicLongArray words;
+
+    /** The number of bits. */
+    private final int size;
+
+    /** True if a bit has changed since the last call to clearDirty(). */
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    /** Creates a new AtomicBitmap with every bit clear.
+     * @param size the number of bits.
+     */
+    public AtomicBitmap(int size) {
+        this.size = size;
+        words = new AtomicLongArray((size + 63) / 64);
+    } // AtomicBitmap(int)
+
+    /** Creates a new AtomicBitmap from its saved form.
+     * @param bytes the bits, as returned by toByteArray().
+     * @return the bitmap, with one bit for each bit of bytes.
+     */
+    public static AtomicBitmap valueOf(byte bytes[]) {
+        AtomicBitmap map = new AtomicBitmap(bytes.length * 8);
+        map.or(BitSet.valueOf(bytes));
+        map.dirty.set(false);
+        return map;
+    } // valueOf(byte[])
+
+    /** Returns the number of bits.
+     * @return the size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Tests a bit.
+     * @param bit the index of the bit.
+     * @return true if the bit is set.
+     */
+    public boolean get(int bit) {
+        return (words.get(bit / 64) & (1L << bit)) != 0;
+    } // get(int)
+
+    /** Sets a bit if it is clear.
+     * @param bit the index of the bit.
+     * @return true if this call set it, false if it was already set.
+     */
+    public boolean set(int bit) {
+        int w = bit / 64;
+        long mask = 1L << bit;
+        for (;;) {
+            long old = words.get(w);
+            if ((old & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(w, old, old | mask)) {
+                dirty.set(true);
+                return true;
+            }
+        }
+    } // set(int)
+
+    /** Sets a range of bits.
+     * @param from the first bit.
+     * @param to the bit after the last.
+     */
+    public void set(int from, int to) {
+        for (int bit = from; bit < to; bit++) {
+            set(bit);
+        }
+    } // set(int, int)
+
+    /** Clears a bit.
+     * @param bit the index of the bit.
+     */
+    public void clear(int bit) {
+        int w = bit / 64;
+        long mask = 1L << bit;
+        for (;;) {
+            long old = words.get(w);
+            if ((old & mask) == 0
+                    || words.compareAndSet(w, old, old & ~mask)) {
+                break;
+            }
+        }
+        dirty.set(true);
+    } // clear(int)
+
+    /** Clears a range of bits.
+     * @param from the first bit.
+     * @param to the bit after the last.
+     */
+    public void clear(int from, int to) {
+        for (int bit = from; bit < to; bit++) {
+            clear(bit);
+        }
+    } // clear(int, int)
+
+    /** Sets every bit that is set in a BitSet.
+     * @param bits the bits to set.
+     */
+    public void or(BitSet bits) {
+        for (int bit = bits.nextSetBit(0); bit >= 0 && bit < size;
+                bit = bits.nextSetBit(bit + 1)) {
+            set(bit);
+        }
+    } // or(BitSet)
+
+    /** Finds the first clear bit at or after a given one.
+     * The answer may be out of date by the time it is returned, so a caller
+     * that wants the bit should claim it with set() and look again if that
+     * fails.
+     * @param from where to start looking.
+     * @return the index of the bit, or size() if every bit from there on
+     * is set.
+     */
+    public int nextClearBit(int from) {
+        for (int w = from / 64; w < words.length(); w++) {
+            long free = ~words.get(w);
+            if (w == from / 64) {
+                free &= -1L << from;
+            }
+            if (free != 0) {
+                return Math.min(size,
+                        w * 64 + Long.numberOfTrailingZeros(free));
+            }
+        }
+        return size;
+    } // nextClearBit(int)
+
+    /** Returns the bits in their saved form.
+     * @param length the number of bytes wanted.
+     * @return the bits, padded with zeros or truncated to length bytes.
+     */
+    public byte[] toByteArray(int length) {
+        byte bytes[] = new byte[length];
+        for (int i = 0; i < length && i / 8 < words.length(); i++) {
+            bytes[i] = (byte) (words.get(i / 8) >>> (8 * (i % 8)));
+        }
+        return bytes;
+    } // toByteArray(int)
+
+    /** Notes that the bitmap is about to be saved.
+     * @return true if it has changed since the last call.
+     */
+    public boolean clearDirty() {
+        return dirty.getAndSet(false);
+    } // clearDirty()
+} // AtomicBitmap
@@ -0,0 +1,142 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+import static minikernel.Checks.*;
+
+/** Checks the AtomicBitmap.
+ * <p>
+ * Most of the checks are about the edges of the 64-bit words the bits are
+ * kept in: ranges that cross a word, a search for a clear bit that has to
+ * skip a full word, and a bitmap of 100 bits, whose last word is partly
+ * unused.  The saved form must be byte for byte what BitSet.toByteArray()
+ * gives, since that is what earlier versions wrote to the disk.  Last,
+ * eight threads race to claim all the bits with nextClearBit() and set(),
+ * as FileSys does when it allocates, and no bit may go to two of them.
+ * <p>
+ * Usage: java minikernel.AtomicBitmapTester
+ *
+ * @see AtomicBitmap
+ */
+public class AtomicBitmapTester {
+    /** The number of threads claiming bits at once. */
+    private static final int THREADS = 8;
+
+    /** Main program.
+     * @param args ignored.
+     */
+    public static void main(String args[]) {
+        bits();
+        search();
+        savedForm();
+        claims();
+        finish();
+    } // main(String[])
+
+    /** Checks set(), clear() and the dirty flag. */
+    private static void bits() {
+        AtomicBitmap map = new AtomicBitmap(100);
+        check("size", map.size() == 100);
+        check("new bitmap is clear and clean",
+                !map.get(0) && !map.get(99) && !map.clearDirty());
+        check("set claims a clear bit", map.set(70) && map.get(70));
+        check("set fails on a set bit", !map.set(70));
+        check("set marks it dirty", map.clearDirty() && !map.clearDirty());
+        map.clear(70);
+        check("clear", !map.get(70) && map.clearDirty());
+        map.set(60, 70);
+        check("set a range across words", map.get(60) && map.get(63)
+                && map.get(64) && map.get(69) && !map.get(70));
+        map.clear(62, 66);
+        check("clear a range across words", map.get(61) && !map.get(62)
+                && !map.get(65) && map.get(66));
+    } // bits()
+
+    /** Checks nextClearBit(). */
+    private static void search() {
+        AtomicBitmap map = new AtomicBitmap(100);
+        map.set(0, 70);
+        check("nextClearBit skips a full word", map.nextClearBit(0) == 70);
+        check("nextClearBit from a clear bit", map.nextClearBit(75) == 75);
+        map.clear(3);
+        check("nextClearBit finds a hole", map.nextClearBit(0) == 3
+                && map.nextClearBit(4) == 70);
+        map.set(3);
+        map.set(70, 100);
+        check("nextClearBit stops at size", map.nextClearBit(0) == 100
+                && map.nextClearBit(99) == 100);
+    } // search()
+
+    /** Checks toByteArray() and valueOf(). */
+    private static void savedForm() {
+        BitSet bits = new BitSet();
+        bits.set(0);
+        bits.set(9);
+        bits.set(63);
+        bits.set(64);
+        bits.set(130);
+        AtomicBitmap map = new AtomicBitmap(200);
+        map.or(bits);
+        byte saved[] = map.toByteArray(25);
+        check("saved form matches BitSet", Arrays.equals(saved,
+                Arrays.copyOf(bits.toByteArray(), 25)));
+        check("saved form truncates",
+                Arrays.equals(map.toByteArray(2), new byte[] { 1, 2 }));
+        AtomicBitmap copy = AtomicBitmap.valueOf(saved);
+        check("valueOf restores the bits", copy.size() == 200
+                && Arrays.equals(copy.toByteArray(25), saved));
+        check("valueOf is clean", !copy.clearDirty());
+
+        AtomicBitmap small = new AtomicBitmap(100);
+        small.or(bits);
+        check("or ignores bits past the end", small.get(64)
+                && small.nextClearBit(65) == 65
+                && small.nextClearBit(99) == 99);
+    } // savedForm()
+
+    /** Has several threads claim every bit at once. */
+    private static void claims() {
+        final AtomicBitmap map = new AtomicBitmap(10000);
+        final int owner[] = new int[map.size()];
+        final int claimed[] = new int[THREADS];
+        Thread threads[] = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int me = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int bit = 0; ; ) {
+                        bit = map.nextClearBit(bit);
+                        if (bit == map.size()) {
+                            break;
+                        }
+                        if (map.set(bit)) {
+                            owner[bit] = me + 1;
+                            claimed[me]++;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        int total = 0;
+        for (int i = 0; i < THREADS; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            total += claimed[i];
+        }
+        boolean owned = true;
+        for (int bit = 0; bit < map.size(); bit++) {
+            owned &= owner[bit] != 0;
+        }
+        check("threads claim every bit",
+                owned && map.nextClearBit(0) == map.size());
+        // With every bit claimed, this many claims means none was twice.
+        check("no bit is claimed twice", total == map.size());
+    } // claims()
+} // AtomicBitmapTester
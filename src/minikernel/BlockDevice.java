@@ -0,0 +1,101 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.concurrent.CompletableFuture;
+
+/** A disk as seen by the file system: an array of fixed-size blocks that can
+ * be read and written synchronously.
+ * <p>
+ * A FastDisk is a BlockDevice in its own right.  The original, slow Disk is
+ * not, since it can only start an operation and interrupt when it is done; the
+ * kernel puts a DiskQueue in front of it, which turns those interrupts into
+ * completed calls.
+ *
+ * @see FastDisk
+ * @see DiskQueue
+ * @see FileSys
+ */
+public interface BlockDevice {
+    /** Returns the size of a block.
+     * @return the block size in bytes.
+     */
+    public int getBlockSize();
+
+    /** Returns the size of the device.
+     * @return the number of blocks.
+     */
+    public int getSize();
+
+    /** Reads one block.
+     * When this method returns, the operation is complete.
+     * @param blockNumber the block number to read from.
+     * @param buffer a data area to hold the data read.
+     */
+    public void read(int blockNumber, byte buffer[]);
+
+    /** Writes one block.
+     * When this method returns, the operation is complete.
+     * @param blockNumber the block number to write to.
+     * @param buffer a data area holding the data to be written.
+     */
+    public void write(int blockNumber, byte buffer[]);
+
+    /** Reads a run of consecutive blocks.
+     * @param start the first block to read.
+     * @param count the number of blocks to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the first block.
+     */
+    public void readBlocks(int start, int count, byte buffer[], int offset);
+
+    /** Reads a list of blocks.
+     * Block blocks[i] is stored in buffer at offset + i * block size.
+     * @param blocks the block numbers to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the first block.
+     */
+    public void readBlocks(int blocks[], byte buffer[], int offset);
+
+    /** Starts reading a run of consecutive blocks without waiting for them.
+     * The buffer must not be touched until the returned future completes.
+     * A device that has no way to overlap reads with other work may do the
+     * whole read before returning.
+     * @param start the first block to read.
+     * @param count the number of blocks to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the first block.
+     * @return a future that completes when the data is in buffer.
+     */
+    public CompletableFuture<Void> readBlocksAsync(int start, int count,
+            byte buffer[], int offset);
+
+    /** Writes a run of consecutive blocks.
+     * @param start the first block to write.
+     * @param count the number of blocks to write.
+     * @param buffer a data area holding the data to be written.
+     * @param offset where in buffer the first block starts.
+     */
+    public void writeBlocks(int start, int count, byte buffer[], int offset);
+
+    /** Writes a list of blocks.
+     * Block blocks[i] is taken from buffer at offset + i * block size.
+     * @param blocks the block numbers to write.
+     * @param buffer a data area holding the data to be written.
+     * @param offset where in buffer the first block starts.
+     */
+    public void writeBlocks(int blocks[], byte buffer[], int offset);
+
+    /** Clears the device to zeros. */
+    public void format();
+
+    /** Saves what has been written so far, if the device can do so cheaply.
+     * @return the number of blocks saved.
+     */
+    public int checkpoint();
+
+    /** Saves the contents of the device and prints statistics. */
+    public void flush();
+} // BlockDevice
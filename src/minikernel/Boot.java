@@ -16,7 +16,20 @@ import static java.lang.System.*;
  * interrupt.  When the Kernel returns from the interrupt, we assume it wants
  * to shut down.
  * <p>
- * The program expects four or more command-line arguments:
+ * The program expects four or more command-line arguments, optionally
+ * preceded by these options:
+ * <dl>
+ * <dt><samp>-virtual</samp><dd>run each process as a virtual thread (see
+ *      Kernel.LAUNCH_VIRTUAL).
+ * <dt><samp>-pooled</samp><dd>run processes in a pool of threads started
+ *      in advance (see Kernel.LAUNCH_POOLED).
+ * <dt><samp>-scheduler</samp> <i>policy</i><dd>make processes share
+ *      simulated CPUs, handed out by one of CpuScheduler.POLICIES, and
+ *      report how each process was scheduled when they have all finished.
+ * <dt><samp>-cpus</samp> <i>n</i><dd>the number of simulated CPUs
+ *      (default 1).
+ * </dl>
+ * The arguments are:
  * <ul>
  * <li> a numeric parameter to pass to the Kernel's POWER_ON interrupt.
  *      The kernel stores this number in its bufferSize field.
@@ -29,6 +42,7 @@ import static java.lang.System.*;
  * An example invocation is
  * <pre>
  *    java Boot 10 Disk 100 Shell
+ *    java Boot -scheduler MLFQ -cpus 2 10 Disk 100 Shell
  * </pre>
  *
  * @see Kernel
@@ -40,7 +54,8 @@ public class Boot {
 
     /** Prints a help message and exits. */
     private static void usage() {
-        err.println("usage: java Boot"
+        err.println("usage: java Boot [ -virtual | -pooled ]"
+            + " [ -scheduler <policy> ] [ -cpus <n> ]"
             + " <cacheSize> <diskName> <diskSize> <shell>"
             + " [ <shell parameters> ... ]");
         exit(-1);
@@ -50,10 +65,40 @@ public class Boot {
      * @param args the command-line arguments
      */
     public static void main(String args[]) {        
+        int launchMode = Kernel.LAUNCH_THREADS;
+        String policy = null;
+        int cpus = 1;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("-")) {
+            String option = args[first++];
+            if (option.equals("-virtual")) {
+                launchMode = Kernel.LAUNCH_VIRTUAL;
+            } else if (option.equals("-pooled")) {
+                launchMode = Kernel.LAUNCH_POOLED;
+            } else if (option.equals("-scheduler") && first < args.length) {
+                policy = args[first++];
+            } else if (option.equals("-cpus") && first < args.length) {
+                cpus = Integer.parseInt(args[first++]);
+            } else {
+                usage();
+            }
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
         if (args.length < 4) {
             usage();
         }
 
+        if (policy != null) {
+            try {
+                Kernel.setDispatcher(
+                    new Dispatcher(CpuScheduler.create(policy), cpus));
+            } catch (IllegalArgumentException e) {
+                err.printf("%s (try one of %s)\n", e.getMessage(),
+                        Arrays.toString(CpuScheduler.POLICIES));
+                usage();
+            }
+        }
+
         int cacheSize = Integer.parseInt(args[0]);
         String diskName = args[1];
         int diskSize = Integer.parseInt(args[2]);
@@ -73,7 +118,7 @@ public class Boot {
                 err.printf("%s is not a subclass of Disk\n", diskName);
                 usage();
             }
-            if (!diskName.equals("FastDisk")) {
+            if (!(disk instanceof FastDisk)) {
                 new Thread((Disk) disk, "DISK").start();
             }
         } catch (ClassNotFoundException e) {
@@ -92,7 +137,8 @@ public class Boot {
         out.println("Boot: Starting kernel.");
 
         Kernel.interrupt(Kernel.INTERRUPT_POWER_ON,
-                         cacheSize, 0, disk, shellCommand.toString(), null);
+                         cacheSize, launchMode, disk,
+                         shellCommand.toString(), null);
 
         out.println("Boot: Kernel has stopped.");
         exit(0);
@@ -0,0 +1,983 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.*;
+import java.util.function.BiConsumer;
+
+/** A write-back cache of disk blocks.
+ * <p>
+ * The cache holds at most <tt>size</tt> blocks.  Blocks are kept in least
+ * recently used order; when the cache is full, the least recently used block
+ * is evicted to make room, and it is written to the disk first if it has been
+ * modified since it was read.  A cache size of zero turns caching off, so
+ * every operation goes straight to the disk.
+ * <p>
+ * Whole blocks are read and written with read(int, byte[]) and
+ * write(int, byte[]), whose buffer must be at least BLOCK_SIZE bytes long.
+ * The file system also reads and updates parts of blocks (inodes, for
+ * example) with the five-argument forms, which save copying a whole block,
+ * and moves runs of consecutive blocks with readBlocks and writeBlocks, which
+ * go to the disk once per run of blocks that are not cached.
+ * <p>
+ * prefetch() starts reading blocks that are expected to be wanted soon,
+ * without waiting for them; they are entered in the cache when the disk
+ * delivers them.  A read of a block that is on its way waits for it rather
+ * than reading it again.  Prefetched blocks that have not been used yet,
+ * including those on their way, never take up more than half the cache,
+ * so that they cannot push out everything else.  The cache counts how many
+ * prefetched blocks were later used and how many were evicted unused.
+ * <p>
+ * Since dirty blocks stay in the cache, repeated writes to the same block
+ * (the free map, a directory, a growing file's last block) cost one disk
+ * write between them.  flushAged() bounds how long that can go on: once the
+ * oldest dirty block has been dirty for a given time, every dirty block is
+ * written in one operation, as flush() does.
+ * <p>
+ * All methods are thread-safe.  The cache's lock is never held while the
+ * disk is busy: a block that is being read in is entered as a busy buffer,
+ * which other threads wait for rather than reading it again, and a dirty
+ * block that is evicted stays out of reach until it has been written back.
+ * flush() copies the dirty blocks while holding the lock and writes them
+ * after releasing it.
+ *
+ * @see FileSys
+ * @see BlockDevice
+ * @see ReadAhead
+ */
+public class BufferCache {
+    /** The disk behind this cache. */
+    private BlockDevice disk;
+
+    /** The maximum number of blocks held in the cache. */
+    private final int size;
+
+    /** Guards everything here.  Never held while waiting for the disk. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled whenever a buffer stops being busy, an evicted block has
+     * been written back, or a flush finishes.
+     */
+    private final Condition changed = lock.newCondition();
+
+    /** The cached blocks, keyed by block number, in LRU order (the eldest
+     * entry is the least recently used).
+     */
+    private final LinkedHashMap<Integer,Buffer> buffers;
+
+    /** Dirty blocks that have been evicted and are on their way to the
+     * disk, and blocks being written with caching turned off (which map to
+     * null).  Nobody may read or write one of these blocks until it is gone
+     * from here, so that the disk never sees an older copy of a block after
+     * a newer one.
+     */
+    private final HashMap<Integer,Buffer> writing
+        = new HashMap<Integer,Buffer>();
+
+    /** True while flush() or flush(int) is writing blocks, which keeps
+     * them from overlapping.
+     */
+    private boolean flushing;
+
+    /** A count of reads and writes satisfied by the cache, for statistics. */
+    private int hitCount;
+
+    /** A count of reads and writes that had to go to the disk. */
+    private int missCount;
+
+    /** A count of dirty blocks written back to the disk. */
+    private int writeBackCount;
+
+    /** A count of writes to blocks that were already dirty, which cost no
+     * disk write of their own.
+     */
+    private int absorbedCount;
+
+    /** A count of calls to flush() that wrote something. */
+    private int groupCount;
+
+    /** A count of blocks prefetched. */
+    private int prefetchCount;
+
+    /** A count of prefetched blocks that were read or written while still in
+     * the cache.
+     */
+    private int prefetchUsedCount;
+
+    /** A count of prefetched blocks evicted without being used. */
+    private int prefetchWastedCount;
+
+    /** The number of prefetched blocks in the cache not yet used. */
+    private int unusedCount;
+
+    /** Blocks being prefetched, each mapped to a future that completes once
+     * it has been entered in the cache.  A block is dropped from here if it
+     * is given a buffer some other way before the prefetch arrives, so that
+     * the prefetch does not enter what is by then an old copy.
+     */
+    private final HashMap<Integer,CompletableFuture<Void>> prefetching
+        = new HashMap<Integer,CompletableFuture<Void>>();
+
+    /** One cached block. */
+    private static class Buffer {
+        /** The block number of the cached data. */
+        int blockNumber;
+
+        /** A copy of the block's contents. */
+        final byte[] data = new byte[Disk.BLOCK_SIZE];
+
+        /** True if data has been modified but not yet written to disk. */
+        boolean dirty;
+
+        /** When the buffer last became dirty, from currentTimeMillis(). */
+        long dirtySince;
+
+        /** True if the block was prefetched and has not been used since. */
+        boolean prefetched;
+
+        /** True while the block is being read into data, which only the
+         * thread reading it may touch until then.
+         */
+        boolean busy;
+
+        /** True while a copy of data is being written by a flush.  The
+         * buffer is not evicted meanwhile, since writing it back would race
+         * with the flush.
+         */
+        boolean cleaning;
+    } // class Buffer
+
+    /** Creates a new cache in front of a disk.
+     * @param disk the disk to cache.
+     * @param size the maximum number of blocks to keep in memory.
+     */
+    public BufferCache(BlockDevice disk, int size) {
+        this.disk = disk;
+        this.size = Math.max(size, 0);
+        // Access-ordered, so iteration starts at the least recently used.
+        buffers = new LinkedHashMap<Integer,Buffer>(this.size * 2, 0.75f, true);
+    } // BufferCache(BlockDevice, int)
+
+    /** Reads a block through the cache.
+     * @param blockNumber the block number to read from.
+     * @param buffer a data area to hold the data read.
+     */
+    public void read(int blockNumber, byte buffer[]) {
+        read(blockNumber, 0, buffer, 0, Disk.BLOCK_SIZE);
+    } // read(int, byte[])
+
+    /** Reads part of a block through the cache.
+     * @param blockNumber the block number to read from.
+     * @param offset the offset within the block of the first byte to read.
+     * @param buffer a data area to hold the data read.
+     * @param bufferOffset where in buffer to put the first byte.
+     * @param length the number of bytes to read.
+     */
+    public void read(int blockNumber, int offset,
+            byte buffer[], int bufferOffset, int length)
+    {
+        if (size == 0) {
+            count(1);
+            byte data[] = new byte[Disk.BLOCK_SIZE];
+            disk.read(blockNumber, data);
+            System.arraycopy(data, offset, buffer, bufferOffset, length);
+            return;
+        }
+        awaitPrefetch(blockNumber, 1);
+        lock.lock();
+        try {
+            Buffer b = lookup(blockNumber);
+            if (b != null) {
+                hit(b);
+            } else {
+                b = load(blockNumber, 1, null, 0)[0];
+            }
+            System.arraycopy(b.data, offset, buffer, bufferOffset, length);
+        } finally {
+            lock.unlock();
+        }
+    } // read(int, int, byte[], int, int)
+
+    /** Reads a run of consecutive blocks through the cache.
+     * Blocks that are cached are copied from the cache; each run of blocks
+     * that are not is read from the disk in a single operation and then
+     * entered in the cache.
+     * @param start the first block to read.
+     * @param count the number of blocks to read.
+     * @param buffer a data area to hold the data read.
+     * @param bufferOffset where in buffer to put the first block.
+     */
+    public void readBlocks(int start, int count,
+            byte buffer[], int bufferOffset)
+    {
+        if (size == 0) {
+            count(count);
+            disk.readBlocks(start, count, buffer, bufferOffset);
+            return;
+        }
+        awaitPrefetch(start, count);
+        lock.lock();
+        try {
+            int i = 0;
+            while (i < count) {
+                Buffer b = lookup(start + i);
+                if (b != null) {
+                    hit(b);
+                    System.arraycopy(b.data, 0,
+                            buffer, bufferOffset + i * Disk.BLOCK_SIZE,
+                            Disk.BLOCK_SIZE);
+                    i++;
+                    continue;
+                }
+                int end = i + 1;
+                while (end < count && !buffers.containsKey(start + end)
+                        && !writing.containsKey(start + end))
+                {
+                    end++;
+                }
+                load(start + i, end - i,
+                        buffer, bufferOffset + i * Disk.BLOCK_SIZE);
+                i = end;
+            }
+        } finally {
+            lock.unlock();
+        }
+    } // readBlocks(int, int, byte[], int)
+
+    /** Starts reading a run of blocks into the cache without waiting for
+     * them.  Blocks already cached or on their way are skipped.  The run is
+     * cut short where it would take unused prefetched blocks past half the
+     * cache, so nothing is done if caching is turned off.
+     * @param start the first block to prefetch.
+     * @param count the number of blocks.
+     * @return the number of blocks, from start on, that are now cached or
+     * on their way.
+     */
+    public int prefetch(int start, int count) {
+        List<int[]> runs = new ArrayList<int[]>();
+        List<CompletableFuture<Void>> futures
+            = new ArrayList<CompletableFuture<Void>>();
+        int i = 0;
+        lock.lock();
+        try {
+            int room = size / 2 - prefetching.size() - unusedCount;
+            while (i < count) {
+                if (isPresent(start + i)) {
+                    i++;
+                    continue;
+                }
+                if (room <= 0) {
+                    break;
+                }
+                int end = i + 1;
+                while (end < count && end - i < room
+                        && !isPresent(start + end))
+                {
+                    end++;
+                }
+                CompletableFuture<Void> arrived = new CompletableFuture<Void>();
+                for (int k = i; k < end; k++) {
+                    prefetching.put(start + k, arrived);
+                }
+                runs.add(new int[] { start + i, end - i });
+                futures.add(arrived);
+                prefetchCount += end - i;
+                room -= end - i;
+                i = end;
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (int r = 0; r < runs.size(); r++) {
+            final int runStart = runs.get(r)[0];
+            final int runCount = runs.get(r)[1];
+            final CompletableFuture<Void> arrived = futures.get(r);
+            final byte data[] = new byte[runCount * Disk.BLOCK_SIZE];
+            BiConsumer<Void,Throwable> enter
+                = new BiConsumer<Void,Throwable>() {
+                    public void accept(Void v, Throwable error) {
+                        try {
+                            install(runStart, runCount,
+                                    error == null ? data : null, arrived);
+                        } finally {
+                            arrived.complete(null);
+                        }
+                    }
+                };
+            CompletableFuture<Void> read;
+            try {
+                read = disk.readBlocksAsync(runStart, runCount, data, 0);
+            } catch (RuntimeException e) {
+                enter.accept(null, e);
+                continue;
+            }
+            // Enter the blocks from another thread, since the future may be
+            // completed by the disk interrupt handler, which must not wait
+            // for this lock.
+            read.whenCompleteAsync(enter);
+        }
+        return i;
+    } // prefetch(int, int)
+
+    /** Writes a block through the cache.
+     * The block is only marked dirty; it reaches the disk when it is evicted
+     * or when the cache is flushed.
+     * @param blockNumber the block number to write to.
+     * @param buffer a data area holding the data to be written.
+     */
+    public void write(int blockNumber, byte buffer[]) {
+        write(blockNumber, 0, buffer, 0, Disk.BLOCK_SIZE);
+    } // write(int, byte[])
+
+    /** Writes part of a block through the cache.
+     * The rest of the block is left unchanged.
+     * @param blockNumber the block number to write to.
+     * @param offset the offset within the block of the first byte to write.
+     * @param buffer a data area holding the data to be written.
+     * @param bufferOffset where in buffer the data starts.
+     * @param length the number of bytes to write.
+     */
+    public void write(int blockNumber, int offset,
+            byte buffer[], int bufferOffset, int length)
+    {
+        boolean wholeBlock = (offset == 0 && length == Disk.BLOCK_SIZE);
+        if (size == 0) {
+            writeThrough(blockNumber, offset, buffer, bufferOffset, length);
+            return;
+        }
+        lock.lock();
+        try {
+            Buffer b = lookup(blockNumber);
+            List<Buffer> victims = null;
+            if (b != null) {
+                hit(b);
+            } else if (wholeBlock) {
+                // Nothing to read, so the buffer is filled before anyone
+                // else can see it.
+                missCount++;
+                victims = new ArrayList<Buffer>();
+                b = enter(blockNumber, victims);
+            } else {
+                // Only a partial write needs the old contents of the block.
+                b = load(blockNumber, 1, null, 0)[0];
+            }
+            System.arraycopy(buffer, bufferOffset, b.data, offset, length);
+            if (b.dirty) {
+                absorbedCount++;
+            } else {
+                b.dirty = true;
+                b.dirtySince = System.currentTimeMillis();
+            }
+            if (victims != null) {
+                transfer(victims, null, null, 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    } // write(int, int, byte[], int, int)
+
+    /** Writes a run of consecutive whole blocks through the cache.
+     * @param start the first block to write.
+     * @param count the number of blocks to write.
+     * @param buffer a data area holding the data to be written.
+     * @param bufferOffset where in buffer the first block starts.
+     */
+    public void writeBlocks(int start, int count,
+            byte buffer[], int bufferOffset)
+    {
+        if (size == 0) {
+            claim(start, count);
+            try {
+                disk.writeBlocks(start, count, buffer, bufferOffset);
+            } finally {
+                unclaim(start, count);
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            write(start + i, 0, buffer, bufferOffset + i * Disk.BLOCK_SIZE,
+                    Disk.BLOCK_SIZE);
+        }
+    } // writeBlocks(int, int, byte[], int)
+
+    /** Writes every dirty block back to the disk.
+     * The dirty blocks are written in block order as a single operation.
+     * The blocks stay in the cache.  Blocks evicted before the flush began
+     * are also on the disk by the time it returns.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            while (flushing) {
+                changed.awaitUninterruptibly();
+            }
+            List<Buffer> evicted = new ArrayList<Buffer>();
+            for (Buffer b : writing.values()) {
+                if (b != null) {
+                    evicted.add(b);
+                }
+            }
+            List<Buffer> dirty = new ArrayList<Buffer>();
+            for (Buffer b : buffers.values()) {
+                if (b.dirty) {
+                    dirty.add(b);
+                }
+            }
+            if (!dirty.isEmpty()) {
+                Collections.sort(dirty, new Comparator<Buffer>() {
+                    public int compare(Buffer a, Buffer b) {
+                        return Integer.compare(a.blockNumber, b.blockNumber);
+                    }
+                });
+                int blocks[] = new int[dirty.size()];
+                byte data[] = new byte[dirty.size() * Disk.BLOCK_SIZE];
+                for (int i = 0; i < blocks.length; i++) {
+                    Buffer b = dirty.get(i);
+                    blocks[i] = b.blockNumber;
+                    System.arraycopy(b.data, 0,
+                            data, i * Disk.BLOCK_SIZE, Disk.BLOCK_SIZE);
+                }
+                clean(dirty, blocks, data);
+                writeBackCount += blocks.length;
+                groupCount++;
+            }
+            for (Buffer b : evicted) {
+                while (writing.get(b.blockNumber) == b) {
+                    changed.awaitUninterruptibly();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    } // flush()
+
+    /** Writes every dirty block back to the disk if any of them has been
+     * dirty for at least maxAge milliseconds.  Called periodically, so that
+     * repeated writes to a block are absorbed in the cache but no block
+     * stays dirty much longer than maxAge.
+     * @param maxAge the longest a block may stay dirty, in milliseconds.
+     * @return the number of blocks written.
+     */
+    public int flushAged(long maxAge) {
+        long oldest = Long.MAX_VALUE;
+        int dirty = 0;
+        lock.lock();
+        try {
+            for (Buffer b : buffers.values()) {
+                if (b.dirty) {
+                    oldest = Math.min(oldest, b.dirtySince);
+                    dirty++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (dirty == 0 || System.currentTimeMillis() - oldest < maxAge) {
+            return 0;
+        }
+        flush();
+        return dirty;
+    } // flushAged(long)
+
+    /** Writes one block back to the disk if it is cached and dirty.
+     * @param blockNumber the block to write back.
+     */
+    public void flush(int blockNumber) {
+        lock.lock();
+        try {
+            Buffer b;
+            for (;;) {
+                while (flushing) {
+                    changed.awaitUninterruptibly();
+                }
+                b = lookup(blockNumber);
+                if (!flushing) {
+                    break;
+                }
+            }
+            if (b != null && b.dirty) {
+                byte data[] = b.data.clone();
+                clean(Collections.singletonList(b),
+                        new int[] { blockNumber }, data);
+                writeBackCount++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    } // flush(int)
+
+    /** Discards the contents of the cache without writing anything back.
+     * Used when the disk underneath has been reformatted.
+     */
+    public void invalidate() {
+        lock.lock();
+        try {
+            buffers.clear();
+            unusedCount = 0;
+            // Prefetches still on their way are of the old contents too.
+            prefetching.clear();
+        } finally {
+            lock.unlock();
+        }
+    } // invalidate()
+
+    /** Checks whether a block is cached or on its way into the cache.
+     * @param blockNumber the block.
+     * @return true if reading it now would not go to the disk.
+     */
+    public boolean contains(int blockNumber) {
+        lock.lock();
+        try {
+            return isPresent(blockNumber);
+        } finally {
+            lock.unlock();
+        }
+    } // contains(int)
+
+    /** Returns the number of reads and writes satisfied by the cache.
+     * @return the hit count.
+     */
+    public int getHitCount() {
+        lock.lock();
+        try {
+            return hitCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getHitCount()
+
+    /** Returns the number of reads and writes that went to the disk.
+     * @return the miss count.
+     */
+    public int getMissCount() {
+        lock.lock();
+        try {
+            return missCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getMissCount()
+
+    /** Returns the number of dirty blocks written back to the disk.
+     * @return the write-back count.
+     */
+    public int getWriteBackCount() {
+        lock.lock();
+        try {
+            return writeBackCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getWriteBackCount()
+
+    /** Returns the number of writes to blocks that were already dirty.
+     * @return the count.
+     */
+    public int getAbsorbedCount() {
+        lock.lock();
+        try {
+            return absorbedCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getAbsorbedCount()
+
+    /** Returns the number of times dirty blocks were written back together.
+     * @return the count.
+     */
+    public int getGroupCount() {
+        lock.lock();
+        try {
+            return groupCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getGroupCount()
+
+    /** Returns the number of blocks prefetched.
+     * @return the prefetch count.
+     */
+    public int getPrefetchCount() {
+        lock.lock();
+        try {
+            return prefetchCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getPrefetchCount()
+
+    /** Returns the number of prefetched blocks that were used.
+     * @return the count.
+     */
+    public int getPrefetchUsedCount() {
+        lock.lock();
+        try {
+            return prefetchUsedCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getPrefetchUsedCount()
+
+    /** Returns the number of prefetched blocks evicted without being used.
+     * @return the count.
+     */
+    public int getPrefetchWastedCount() {
+        lock.lock();
+        try {
+            return prefetchWastedCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getPrefetchWastedCount()
+
+    /** Waits for any of a run of blocks that are being prefetched to arrive.
+     * The caller must not hold the lock.
+     * @param start the first block.
+     * @param count the number of blocks.
+     */
+    private void awaitPrefetch(int start, int count) {
+        for (;;) {
+            CompletableFuture<Void> arriving = null;
+            lock.lock();
+            try {
+                if (prefetching.isEmpty()) {
+                    return;
+                }
+                for (int i = 0; i < count && arriving == null; i++) {
+                    arriving = prefetching.get(start + i);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (arriving == null) {
+                return;
+            }
+            try {
+                arriving.join();
+            } catch (CompletionException e) {
+                // The prefetch failed; the caller reads the block itself.
+            }
+        }
+    } // awaitPrefetch(int, int)
+
+    /** Enters prefetched blocks in the cache.  Only blocks still registered
+     * to this prefetch are entered: one that was read or written while the
+     * prefetch was on its way has been given a buffer of its own, which may
+     * since have been written back and evicted, and the cache was emptied
+     * of everything if it was invalidated.  Either way, the data that has
+     * arrived is out of date.
+     * @param start the first block.
+     * @param count the number of blocks.
+     * @param data their contents, or null if the prefetch failed.
+     * @param arrived the future the blocks were registered to.
+     */
+    private void install(int start, int count, byte data[],
+            CompletableFuture<Void> arrived)
+    {
+        lock.lock();
+        try {
+            List<Buffer> victims = new ArrayList<Buffer>();
+            for (int i = 0; i < count; i++) {
+                if (prefetching.get(start + i) != arrived) {
+                    continue;
+                }
+                prefetching.remove(start + i);
+                if (data != null) {
+                    Buffer b = enter(start + i, victims);
+                    System.arraycopy(data, i * Disk.BLOCK_SIZE,
+                            b.data, 0, Disk.BLOCK_SIZE);
+                    b.prefetched = true;
+                    unusedCount++;
+                }
+            }
+            transfer(victims, null, null, 0);
+        } finally {
+            lock.unlock();
+        }
+    } // install(int, int, byte[], CompletableFuture<Void>)
+
+    /** Checks whether a block is cached, being prefetched, or being written
+     * back.  The caller must hold the lock.
+     * @param blockNumber the block.
+     * @return true if it is.
+     */
+    private boolean isPresent(int blockNumber) {
+        return buffers.containsKey(blockNumber)
+            || prefetching.containsKey(blockNumber)
+            || writing.containsKey(blockNumber);
+    } // isPresent(int)
+
+    /** Counts a hit on a cached block.
+     * @param b the buffer holding the block.
+     */
+    private void hit(Buffer b) {
+        hitCount++;
+        if (b.prefetched) {
+            b.prefetched = false;
+            unusedCount--;
+            prefetchUsedCount++;
+        }
+    } // hit(Buffer)
+
+    /** Counts misses while caching is turned off.
+     * @param count the number of blocks that went to the disk.
+     */
+    private void count(int count) {
+        lock.lock();
+        try {
+            missCount += count;
+        } finally {
+            lock.unlock();
+        }
+    } // count(int)
+
+    /** Finds a block in the cache, waiting for it if it is being read in or
+     * written back.  The caller must hold the lock, which is released while
+     * waiting.
+     * @param blockNumber the block.
+     * @return the buffer holding it, or null if it is not cached.
+     */
+    private Buffer lookup(int blockNumber) {
+        for (;;) {
+            Buffer b = buffers.get(blockNumber);
+            if (b == null ? !writing.containsKey(blockNumber) : !b.busy) {
+                return b;
+            }
+            changed.awaitUninterruptibly();
+        }
+    } // lookup(int)
+
+    /** Reads a run of blocks that are not cached into new buffers.  The
+     * caller must hold the lock, which is released while the disk is busy.
+     * @param start the first block.
+     * @param count the number of blocks.
+     * @param buffer a data area to hold the data as well, or null if count
+     * is 1.
+     * @param bufferOffset where in buffer to put the first block.
+     * @return the buffers, in order.
+     */
+    private Buffer[] load(int start, int count,
+            byte buffer[], int bufferOffset)
+    {
+        missCount += count;
+        List<Buffer> victims = new ArrayList<Buffer>();
+        Buffer loading[] = new Buffer[count];
+        for (int i = 0; i < count; i++) {
+            loading[i] = enter(start + i, victims);
+            loading[i].busy = true;
+        }
+        transfer(victims, loading, buffer, bufferOffset);
+        return loading;
+    } // load(int, int, byte[], int)
+
+    /** Finds a buffer for a block that is not in the cache, evicting least
+     * recently used blocks if the cache is full.  Busy buffers and buffers
+     * being flushed are passed over, so the cache may briefly hold more
+     * than size blocks.  Any prefetch of the block still on its way will
+     * not be entered.  The caller must hold the lock.
+     * @param blockNumber the block that will be held in the buffer.
+     * @param victims where to add evicted buffers that are dirty, which are
+     * moved to writing and must be passed to transfer() by the caller.
+     * @return a buffer, already entered in the cache under blockNumber.
+     */
+    private Buffer enter(int blockNumber, List<Buffer> victims) {
+        prefetching.remove(blockNumber);
+        Buffer b = null;
+        int excess = buffers.size() + 1 - size;
+        Iterator<Buffer> eldest = buffers.values().iterator();
+        while (excess > 0 && eldest.hasNext()) {
+            Buffer victim = eldest.next();
+            if (victim.busy || victim.cleaning) {
+                continue;
+            }
+            eldest.remove();
+            excess--;
+            if (victim.prefetched) {
+                unusedCount--;
+                prefetchWastedCount++;
+            }
+            if (victim.dirty) {
+                writing.put(victim.blockNumber, victim);
+                victims.add(victim);
+            } else if (b == null) {
+                // Recycle the buffer.
+                b = victim;
+            }
+        }
+        if (b == null) {
+            b = new Buffer();
+        }
+        b.blockNumber = blockNumber;
+        b.dirty = false;
+        b.prefetched = false;
+        b.busy = false;
+        b.cleaning = false;
+        buffers.put(blockNumber, b);
+        return b;
+    } // enter(int, List<Buffer>)
+
+    /** Writes evicted blocks back to the disk and then reads blocks into
+     * busy buffers.  The caller must hold the lock, which is released while
+     * the disk is busy.  Whatever happens, the victims are dropped from
+     * writing and the buffers stop being busy; if the read fails, they are
+     * dropped from the cache too.
+     * @param victims the evicted dirty buffers.
+     * @param loading busy buffers for a run of consecutive blocks to read,
+     * or null.
+     * @param buffer a data area to hold the data read as well, or null if
+     * only one block is read.
+     * @param bufferOffset where in buffer to put the first block.
+     */
+    private void transfer(List<Buffer> victims, Buffer loading[],
+            byte buffer[], int bufferOffset)
+    {
+        if (victims.isEmpty() && loading == null) {
+            return;
+        }
+        int written = 0;
+        boolean loaded = false;
+        lock.unlock();
+        try {
+            for (; written < victims.size(); written++) {
+                Buffer victim = victims.get(written);
+                disk.write(victim.blockNumber, victim.data);
+            }
+            if (loading != null && buffer == null) {
+                disk.read(loading[0].blockNumber, loading[0].data);
+            } else if (loading != null) {
+                disk.readBlocks(loading[0].blockNumber, loading.length,
+                        buffer, bufferOffset);
+                for (int i = 0; i < loading.length; i++) {
+                    System.arraycopy(buffer,
+                            bufferOffset + i * Disk.BLOCK_SIZE,
+                            loading[i].data, 0, Disk.BLOCK_SIZE);
+                }
+            }
+            loaded = true;
+        } finally {
+            lock.lock();
+            for (Buffer victim : victims) {
+                writing.remove(victim.blockNumber);
+            }
+            writeBackCount += written;
+            if (loading != null) {
+                for (Buffer b : loading) {
+                    b.busy = false;
+                    if (!loaded && buffers.get(b.blockNumber) == b) {
+                        buffers.remove(b.blockNumber);
+                    }
+                }
+            }
+            changed.signalAll();
+        }
+    } // transfer(List<Buffer>, Buffer[], byte[], int)
+
+    /** Writes copies of dirty buffers to the disk as one operation and marks
+     * the buffers clean.  The caller must hold the lock and have waited for
+     * any other flush to finish; the lock is released while the disk is
+     * busy.  The buffers may be written again meanwhile, which leaves them
+     * dirty.  If the write fails, they are left dirty.
+     * @param dirty the buffers.
+     * @param blocks their block numbers, in the order of data.
+     * @param data copies of their contents.
+     */
+    private void clean(List<Buffer> dirty, int blocks[], byte data[]) {
+        for (Buffer b : dirty) {
+            b.dirty = false;
+            b.cleaning = true;
+        }
+        flushing = true;
+        boolean written = false;
+        lock.unlock();
+        try {
+            disk.writeBlocks(blocks, data, 0);
+            written = true;
+        } finally {
+            lock.lock();
+            for (Buffer b : dirty) {
+                b.cleaning = false;
+                b.dirty |= !written;
+            }
+            flushing = false;
+            changed.signalAll();
+        }
+    } // clean(List<Buffer>, int[], byte[])
+
+    /** Writes part of a block straight to the disk, for when caching is
+     * turned off.  The block is claimed while it is read and written back,
+     * so that two writes to the same block cannot undo each other.
+     * @param blockNumber the block number to write to.
+     * @param offset the offset within the block of the first byte to write.
+     * @param buffer a data area holding the data to be written.
+     * @param bufferOffset where in buffer the data starts.
+     * @param length the number of bytes to write.
+     */
+    private void writeThrough(int blockNumber, int offset,
+            byte buffer[], int bufferOffset, int length)
+    {
+        claim(blockNumber, 1);
+        try {
+            if (offset == 0 && length == Disk.BLOCK_SIZE
+                    && bufferOffset == 0)
+            {
+                disk.write(blockNumber, buffer);
+                return;
+            }
+            byte data[] = new byte[Disk.BLOCK_SIZE];
+            if (offset != 0 || length != Disk.BLOCK_SIZE) {
+                disk.read(blockNumber, data);
+            }
+            System.arraycopy(buffer, bufferOffset, data, offset, length);
+            disk.write(blockNumber, data);
+        } finally {
+            unclaim(blockNumber, 1);
+        }
+    } // writeThrough(int, int, byte[], int, int)
+
+    /** Waits until none of a run of blocks is being written with caching
+     * turned off, and then claims them all.  The caller must not hold the
+     * lock.
+     * @param start the first block.
+     * @param count the number of blocks.
+     */
+    private void claim(int start, int count) {
+        lock.lock();
+        try {
+            for (int i = 0; i < count; ) {
+                if (writing.containsKey(start + i)) {
+                    changed.awaitUninterruptibly();
+                    i = 0;
+                } else {
+                    i++;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                writing.put(start + i, null);
+            }
+            missCount += count;
+        } finally {
+            lock.unlock();
+        }
+    } // claim(int, int)
+
+    /** Releases blocks claimed by claim().
+     * @param start the first block.
+     * @param count the number of blocks.
+     */
+    private void unclaim(int start, int count) {
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                writing.remove(start + i);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    } // unclaim(int, int)
+} // BufferCache
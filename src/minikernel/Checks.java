@@ -0,0 +1,40 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import static java.lang.System.*;
+
+/** The score kept by the tester programs.
+ * <p>
+ * A tester calls check() once for each thing it checks, which prints PASS
+ * or FAIL and what was checked, and finish() when it is done, which prints
+ * the number of checks that failed and exits with that number as the
+ * status.  A script can then run the testers one after another and stop at
+ * the first one that fails.
+ */
+public class Checks {
+    /** The number of checks that failed. */
+    private static int failures;
+
+    /** No instances. */
+    private Checks() {}
+
+    /** Reports the result of a check.
+     * @param what what was checked.
+     * @param ok true if it passed.
+     */
+    public static void check(String what, boolean ok) {
+        out.printf("%s %s\n", ok ? "PASS" : "FAIL", what);
+        if (!ok) {
+            failures++;
+        }
+    } // check(String, boolean)
+
+    /** Reports how many checks failed, and exits with that status. */
+    public static void finish() {
+        out.printf("%d check%s failed\n", failures, failures == 1 ? "" : "s");
+        exit(failures);
+    } // finish()
+} // Checks
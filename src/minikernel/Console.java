@@ -0,0 +1,145 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.io.*;
+import java.util.concurrent.locks.*;
+
+/** A buffered console output driver.
+ * <p>
+ * Output is collected in a buffer of BUFFER_SIZE bytes and handed to the
+ * underlying stream in one write when a newline is written, when the buffer
+ * fills, or when flush() is called.  A line of output built up from many
+ * small pieces, such as a directory listing, therefore costs one write to
+ * the console rather than one per piece.
+ * <p>
+ * The Kernel flushes the console before it reads input, so that prompts
+ * appear, and at shutdown.  Output that other code prints straight to the
+ * same stream still appears in order as long as it is printed after a
+ * newline.
+ * <p>
+ * Writes to the device are made while holding a ReentrantLock, which keeps
+ * output in order without pinning a virtual thread to its carrier while
+ * the device is slow to accept it.
+ *
+ * @see Kernel#SYSCALL_OUTPUT
+ * @see Kernel#SYSCALL_FLUSH
+ */
+public class Console {
+    /** The size of the output buffer, in bytes. */
+    public static final int BUFFER_SIZE = 4096;
+
+    /** The stream that output is sent to. */
+    private final PrintStream device;
+
+    /** Guards everything here, and keeps writes to the device in order. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Output not yet sent to the device. */
+    private final byte buffer[] = new byte[BUFFER_SIZE];
+
+    /** The number of bytes in buffer. */
+    private int count;
+
+    /** The number of writes made to the device, for statistics. */
+    private int writeCount;
+
+    /** The number of bytes sent to the device. */
+    private long byteCount;
+
+    /** Creates a new Console.
+     * @param device the stream to send output to.
+     */
+    public Console(PrintStream device) {
+        this.device = device;
+    } // Console(PrintStream)
+
+    /** Writes a string, encoded in the platform's default charset.
+     * @param s the string.
+     */
+    public void write(String s) {
+        byte bytes[] = s.getBytes();
+        write(bytes, 0, bytes.length);
+    } // write(String)
+
+    /** Writes part of an array of bytes.
+     * @param bytes the data.
+     * @param offset where in bytes the data starts.
+     * @param length the number of bytes to write.
+     */
+    public void write(byte bytes[], int offset, int length) {
+        lock.lock();
+        try {
+            if (count + length > BUFFER_SIZE) {
+                flush();
+                if (length >= BUFFER_SIZE) {
+                    // Too big to be worth copying.
+                    send(bytes, offset, length);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+            for (int i = offset + length - 1; i >= offset; i--) {
+                if (bytes[i] == '\n') {
+                    flush();
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    } // write(byte[], int, int)
+
+    /** Sends everything buffered to the device. */
+    public void flush() {
+        lock.lock();
+        try {
+            if (count > 0) {
+                send(buffer, 0, count);
+                count = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    } // flush()
+
+    /** Returns the number of writes made to the device.
+     * @return the count.
+     */
+    public int getWriteCount() {
+        lock.lock();
+        try {
+            return writeCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getWriteCount()
+
+    /** Returns the number of bytes sent to the device.
+     * @return the count.
+     */
+    public long getByteCount() {
+        lock.lock();
+        try {
+            return byteCount;
+        } finally {
+            lock.unlock();
+        }
+    } // getByteCount()
+
+    /** Writes bytes to the device and flushes it.  The caller must hold the
+     * lock.
+     * @param bytes the data.
+     * @param offset where in bytes the data starts.
+     * @param length the number of bytes.
+     */
+    private void send(byte bytes[], int offset, int length) {
+        device.write(bytes, offset, length);
+        device.flush();
+        writeCount++;
+        byteCount += length;
+    } // send(byte[], int, int)
+} // Console
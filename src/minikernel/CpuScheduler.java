@@ -0,0 +1,347 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+
+/** A policy for choosing which ready process gets the next free CPU.
+ * <p>
+ * The Dispatcher hands every process that becomes ready to its scheduler,
+ * asks it for the next one whenever a CPU is free, tells it how much CPU
+ * time a process used whenever it is charged, and asks it at each system
+ * call whether the caller should give way.  The policies are:
+ * <dl>
+ * <dt>RR<dd>round robin: first come, first served, with each process
+ *     preempted after a QUANTUM of CPU time.
+ * <dt>PRIORITY<dd>the process with the lowest nice value runs first, round
+ *     robin among equals.  A process is also preempted as soon as a more
+ *     favored one is waiting.
+ * <dt>MLFQ<dd>a multilevel feedback queue with LEVELS queues.  A new process
+ *     starts at the top; one that uses a whole time slice moves down a
+ *     level, where the slices are twice as long.  Every BOOST_INTERVAL,
+ *     every process goes back to the top so that none starves.
+ * <dt>CFS<dd>fair share: each process is charged its CPU time divided by a
+ *     weight that grows by 25% for each step of nice below zero, and the
+ *     process that has been charged least runs next.  A process that has
+ *     been waiting for something else comes back no more than half of
+ *     TARGET_LATENCY behind the others.
+ * </dl>
+ * All times are in nanoseconds.  A scheduler is only used while its
+ * Dispatcher's lock is held.
+ *
+ * @see Dispatcher
+ */
+public abstract class CpuScheduler {
+    /** The names of the available policies. */
+    public static final String POLICIES[] =
+        { "RR", "PRIORITY", "MLFQ", "CFS" };
+
+    /** The time slice of RR and PRIORITY, and of the top level of MLFQ. */
+    public static final long QUANTUM = 10000000L;
+
+    /** The number of levels of MLFQ. */
+    public static final int LEVELS = 3;
+
+    /** How often MLFQ moves every process back to the top level. */
+    public static final long BOOST_INTERVAL = 1000000000L;
+
+    /** The time within which CFS tries to run every ready process once. */
+    public static final long TARGET_LATENCY = 20000000L;
+
+    /** The shortest time slice CFS gives. */
+    public static final long MIN_GRANULARITY = 2000000L;
+
+    /** The name of this policy. */
+    private String name;
+
+    /** Creates a scheduler.
+     * @param policy the name of the policy, one of POLICIES (ignoring case).
+     * @return a new, empty scheduler.
+     * @throws IllegalArgumentException if there is no such policy.
+     */
+    public static CpuScheduler create(String policy) {
+        String name = policy.toUpperCase();
+        CpuScheduler s;
+        if (name.equals("RR")) {
+            s = new RoundRobin();
+        } else if (name.equals("PRIORITY")) {
+            s = new Priority();
+        } else if (name.equals("MLFQ")) {
+            s = new Mlfq();
+        } else if (name.equals("CFS")) {
+            s = new Cfs();
+        } else {
+            throw new IllegalArgumentException("No CPU scheduler " + policy);
+        }
+        s.name = name;
+        return s;
+    } // create(String)
+
+    /** Returns the name of this policy.
+     * @return one of POLICIES.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /** Adds a process to the ready queue.
+     * @param t the process.
+     */
+    abstract void add(Dispatcher.Task t);
+
+    /** Removes and returns the process to run next.
+     * @return the process, or null if none is ready.
+     */
+    abstract Dispatcher.Task next();
+
+    /** Returns the number of processes ready to run.
+     * @return the count.
+     */
+    abstract int size();
+
+    /** Decides how long a process may run before it is preempted.
+     * @param t a process that has just been given a CPU.
+     * @return the length of its time slice.
+     */
+    long quantum(Dispatcher.Task t) {
+        return QUANTUM;
+    }
+
+    /** Records CPU time used by a process.
+     * @param t the process.
+     * @param nanos the time it used.
+     * @param expired true if it used its whole time slice.
+     */
+    void ran(Dispatcher.Task t, long nanos, boolean expired) {
+    }
+
+    /** Decides whether a running process should give way to one that is
+     * ready.  Only asked when the ready queue is not empty.
+     * @param t the running process.
+     * @param ran how long it has run since its slice started.
+     * @return true if it should be preempted.
+     */
+    boolean preempt(Dispatcher.Task t, long ran) {
+        return ran >= t.slice;
+    }
+
+    /** Moves every process back to the top level, for a policy that has
+     * levels.  MLFQ does this itself every BOOST_INTERVAL.
+     */
+    void boost() {
+    }
+
+    /** Round robin. */
+    private static class RoundRobin extends CpuScheduler {
+        /** The ready processes, in arrival order. */
+        private final LinkedList<Dispatcher.Task> queue
+            = new LinkedList<Dispatcher.Task>();
+
+        void add(Dispatcher.Task t) {
+            queue.add(t);
+        }
+
+        Dispatcher.Task next() {
+            return queue.poll();
+        }
+
+        int size() {
+            return queue.size();
+        }
+    } // class RoundRobin
+
+    /** Static priority, by nice value. */
+    private static class Priority extends CpuScheduler {
+        /** The ready processes, by nice value, each in arrival order. */
+        private final TreeMap<Integer,LinkedList<Dispatcher.Task>> queues
+            = new TreeMap<Integer,LinkedList<Dispatcher.Task>>();
+
+        /** The number of ready processes. */
+        private int count;
+
+        void add(Dispatcher.Task t) {
+            LinkedList<Dispatcher.Task> queue = queues.get(t.nice);
+            if (queue == null) {
+                queue = new LinkedList<Dispatcher.Task>();
+                queues.put(t.nice, queue);
+            }
+            queue.add(t);
+            count++;
+        } // add(Dispatcher.Task)
+
+        Dispatcher.Task next() {
+            if (count == 0) {
+                return null;
+            }
+            Map.Entry<Integer,LinkedList<Dispatcher.Task>> first
+                = queues.firstEntry();
+            Dispatcher.Task t = first.getValue().poll();
+            if (first.getValue().isEmpty()) {
+                queues.remove(first.getKey());
+            }
+            count--;
+            return t;
+        } // next()
+
+        int size() {
+            return count;
+        }
+
+        boolean preempt(Dispatcher.Task t, long ran) {
+            return ran >= t.slice || queues.firstKey() < t.nice;
+        } // preempt(Dispatcher.Task, long)
+    } // class Priority
+
+    /** Multilevel feedback queue. */
+    private static class Mlfq extends CpuScheduler {
+        /** The ready processes at each level, each in arrival order. */
+        private final List<LinkedList<Dispatcher.Task>> levels
+            = new ArrayList<LinkedList<Dispatcher.Task>>();
+
+        /** The number of boosts so far. */
+        private int boost;
+
+        /** When the last boost happened. */
+        private long lastBoost = System.nanoTime();
+
+        /** The number of ready processes. */
+        private int count;
+
+        /** Creates a new Mlfq. */
+        Mlfq() {
+            for (int i = 0; i < LEVELS; i++) {
+                levels.add(new LinkedList<Dispatcher.Task>());
+            }
+        } // Mlfq.Mlfq()
+
+        /** Moves a process to the top level if there has been a boost since
+         * it last ran.
+         * @param t the process.
+         */
+        private void catchUp(Dispatcher.Task t) {
+            if (t.boost != boost) {
+                t.boost = boost;
+                t.level = 0;
+            }
+        } // Mlfq.catchUp(Dispatcher.Task)
+
+        void add(Dispatcher.Task t) {
+            catchUp(t);
+            levels.get(t.level).add(t);
+            count++;
+        } // Mlfq.add(Dispatcher.Task)
+
+        Dispatcher.Task next() {
+            if (System.nanoTime() - lastBoost >= BOOST_INTERVAL) {
+                boost();
+            }
+            for (LinkedList<Dispatcher.Task> queue : levels) {
+                if (!queue.isEmpty()) {
+                    count--;
+                    Dispatcher.Task t = queue.poll();
+                    catchUp(t);
+                    return t;
+                }
+            }
+            return null;
+        } // Mlfq.next()
+
+        int size() {
+            return count;
+        }
+
+        void boost() {
+            lastBoost = System.nanoTime();
+            boost++;
+            for (int i = 1; i < LEVELS; i++) {
+                levels.get(0).addAll(levels.get(i));
+                levels.get(i).clear();
+            }
+        } // Mlfq.boost()
+
+        long quantum(Dispatcher.Task t) {
+            return QUANTUM << t.level;
+        }
+
+        void ran(Dispatcher.Task t, long nanos, boolean expired) {
+            catchUp(t);
+            if (expired && t.level < LEVELS - 1) {
+                t.level++;
+            }
+        } // Mlfq.ran(Dispatcher.Task, long, boolean)
+
+        boolean preempt(Dispatcher.Task t, long ran) {
+            if (ran >= t.slice) {
+                return true;
+            }
+            for (int i = 0; i < t.level; i++) {
+                if (!levels.get(i).isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        } // Mlfq.preempt(Dispatcher.Task, long)
+    } // class Mlfq
+
+    /** Completely fair scheduling, by weighted CPU time. */
+    private static class Cfs extends CpuScheduler {
+        /** The ready processes, least charged first. */
+        private final TreeSet<Dispatcher.Task> tree
+            = new TreeSet<Dispatcher.Task>(new Comparator<Dispatcher.Task>() {
+                public int compare(Dispatcher.Task a, Dispatcher.Task b) {
+                    if (a.vruntime != b.vruntime) {
+                        return a.vruntime < b.vruntime ? -1 : 1;
+                    }
+                    return a.pid - b.pid;
+                }
+            });
+
+        /** The least charge of any process, which only increases. */
+        private long minVruntime;
+
+        /** Returns the weight of a nice value.
+         * @param nice the nice value.
+         * @return 1024 at nice 0, 25% more for each step down.
+         */
+        private static double weight(int nice) {
+            return 1024 / Math.pow(1.25, nice);
+        } // Cfs.weight(int)
+
+        void add(Dispatcher.Task t) {
+            // Do not let a process that has been away bank its absence.
+            t.vruntime = Math.max(t.vruntime,
+                    minVruntime - TARGET_LATENCY / 2);
+            tree.add(t);
+        } // Cfs.add(Dispatcher.Task)
+
+        Dispatcher.Task next() {
+            Dispatcher.Task t = tree.pollFirst();
+            if (t != null) {
+                minVruntime = Math.max(minVruntime, t.vruntime);
+            }
+            return t;
+        } // Cfs.next()
+
+        int size() {
+            return tree.size();
+        }
+
+        long quantum(Dispatcher.Task t) {
+            return Math.max(MIN_GRANULARITY,
+                    TARGET_LATENCY / (tree.size() + 1));
+        } // Cfs.quantum(Dispatcher.Task)
+
+        void ran(Dispatcher.Task t, long nanos, boolean expired) {
+            t.vruntime += (long) (nanos * 1024 / weight(t.nice));
+        } // Cfs.ran(Dispatcher.Task, long, boolean)
+
+        boolean preempt(Dispatcher.Task t, long ran) {
+            long charged = t.vruntime + (long) (ran * 1024 / weight(t.nice));
+            return ran >= t.slice
+                || (ran >= MIN_GRANULARITY
+                    && tree.first().vruntime + MIN_GRANULARITY < charged);
+        } // Cfs.preempt(Dispatcher.Task, long)
+    } // class Cfs
+} // CpuScheduler
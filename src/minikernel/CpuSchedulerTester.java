@@ -0,0 +1,298 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+import static minikernel.Checks.*;
+
+/** Checks the CPU scheduling policies and the Dispatcher.
+ * <p>
+ * The policies are driven by hand: nothing runs, and each process is
+ * charged whatever CPU time the check needs, so the order and the slices
+ * a policy chooses can be compared with exact answers.  This covers the
+ * PRIORITY and MLFQ rules for preempting, MLFQ demotion and boosting, and
+ * the CFS weights, minimum charge and slice lengths.  The Dispatcher, on
+ * the other hand, is run for real: two threads share one CPU, and the
+ * order they ran in and the counts in its report are checked.
+ * <p>
+ * Usage: java minikernel.CpuSchedulerTester
+ *
+ * @see CpuScheduler
+ * @see Dispatcher
+ */
+public class CpuSchedulerTester {
+    /** One millisecond, in nanoseconds. */
+    private static final long MS = 1000000L;
+
+    /** The Dispatcher that makes the tasks for the scheduler checks. */
+    private static final Dispatcher maker
+        = new Dispatcher(CpuScheduler.create("RR"), 1);
+
+    /** Main program.
+     * @param args ignored.
+     */
+    public static void main(String args[]) {
+        roundRobin();
+        priority();
+        mlfq();
+        cfs();
+        dispatcher();
+        finish();
+    } // main(String[])
+
+    /** Checks RR. */
+    private static void roundRobin() {
+        CpuScheduler s = CpuScheduler.create("rr");
+        check("RR name", s.getName().equals("RR"));
+        Dispatcher.Task a = task(1, 0);
+        Dispatcher.Task b = task(2, -10);
+        Dispatcher.Task c = task(3, 10);
+        s.add(a);
+        s.add(b);
+        s.add(c);
+        check("RR size", s.size() == 3);
+        check("RR ignores nice", order(s).equals("1 2 3"));
+        a.slice = s.quantum(a);
+        check("RR quantum", a.slice == CpuScheduler.QUANTUM);
+        s.add(b);
+        check("RR keeps a slice going",
+                !s.preempt(a, CpuScheduler.QUANTUM - 1));
+        check("RR preempts at the end of a slice",
+                s.preempt(a, CpuScheduler.QUANTUM));
+    } // roundRobin()
+
+    /** Checks PRIORITY. */
+    private static void priority() {
+        CpuScheduler s = CpuScheduler.create("PRIORITY");
+        s.add(task(1, 5));
+        s.add(task(2, 0));
+        s.add(task(3, 0));
+        s.add(task(4, -3));
+        s.add(task(5, 5));
+        check("PRIORITY order", order(s).equals("4 2 3 1 5"));
+        check("PRIORITY empty", s.next() == null && s.size() == 0);
+
+        Dispatcher.Task running = task(6, 5);
+        running.slice = s.quantum(running);
+        s.add(task(7, 10));
+        check("PRIORITY lets a less favored process wait",
+                !s.preempt(running, MS));
+        s.add(task(8, 0));
+        check("PRIORITY preempts for a more favored process",
+                s.preempt(running, MS));
+        s.next();
+        s.next();
+        s.add(task(9, 5));
+        check("PRIORITY lets an equal wait until the slice ends",
+                !s.preempt(running, MS)
+                    && s.preempt(running, CpuScheduler.QUANTUM));
+    } // priority()
+
+    /** Checks MLFQ. */
+    private static void mlfq() {
+        CpuScheduler s = CpuScheduler.create("MLFQ");
+        Dispatcher.Task a = task(1, 0);
+        s.add(a);
+        s.next();
+        check("MLFQ starts at the top", a.level == 0
+                && s.quantum(a) == CpuScheduler.QUANTUM);
+        s.ran(a, MS, false);
+        check("MLFQ keeps a process that blocks", a.level == 0);
+        s.ran(a, CpuScheduler.QUANTUM, true);
+        check("MLFQ demotes a process that uses its slice", a.level == 1
+                && s.quantum(a) == 2 * CpuScheduler.QUANTUM);
+        for (int i = 0; i < CpuScheduler.LEVELS; i++) {
+            s.ran(a, s.quantum(a), true);
+        }
+        check("MLFQ stops at the bottom",
+                a.level == CpuScheduler.LEVELS - 1);
+
+        Dispatcher.Task b = task(2, 0);
+        s.add(a);
+        s.add(b);
+        check("MLFQ runs higher levels first", order(s).equals("2 1"));
+        a.slice = s.quantum(a);
+        s.add(task(3, 0));
+        check("MLFQ preempts for a higher level", s.preempt(a, MS));
+        b.slice = s.quantum(b);
+        check("MLFQ does not preempt for the same level",
+                !s.preempt(b, MS));
+        s.next();
+
+        // a waits at the bottom, c runs in the middle.
+        Dispatcher.Task c = task(4, 0);
+        s.add(c);
+        s.next();
+        s.ran(c, s.quantum(c), true);
+        s.add(a);
+        s.boost();
+        check("MLFQ boost moves waiting processes up",
+                s.next() == a && a.level == 0);
+        s.ran(c, MS, false);
+        check("MLFQ boost reaches a process that was running",
+                c.level == 0);
+    } // mlfq()
+
+    /** Checks CFS. */
+    private static void cfs() {
+        CpuScheduler s = CpuScheduler.create("CFS");
+        Dispatcher.Task normal = task(1, 0);
+        Dispatcher.Task favored = task(2, -1);
+        Dispatcher.Task niced = task(3, 1);
+        s.ran(normal, 10 * MS, false);
+        s.ran(favored, 10 * MS, false);
+        s.ran(niced, 10 * MS, false);
+        check("CFS charges nice 0 its CPU time", normal.vruntime == 10 * MS);
+        check("CFS charges nice -1 less", favored.vruntime == 8 * MS);
+        check("CFS charges nice 1 more",
+                Math.abs(niced.vruntime - 12500000L) <= 1);
+        s.add(niced);
+        s.add(normal);
+        s.add(favored);
+        check("CFS runs the least charged first", order(s).equals("2 1 3"));
+
+        // Ties go to the lower pid.
+        Dispatcher.Task late = task(5, 0);
+        Dispatcher.Task early = task(4, 0);
+        late.vruntime = early.vruntime = 20 * MS;
+        s.add(late);
+        s.add(early);
+        check("CFS breaks ties by pid", order(s).equals("4 5"));
+
+        // minVruntime is now 20ms; a process that slept comes back no
+        // more than half of TARGET_LATENCY behind.
+        Dispatcher.Task sleeper = task(6, 0);
+        s.add(sleeper);
+        check("CFS clamps a process that has been away",
+                sleeper.vruntime
+                    == 20 * MS - CpuScheduler.TARGET_LATENCY / 2);
+        Dispatcher.Task ahead = task(7, 0);
+        ahead.vruntime = 50 * MS;
+        s.add(ahead);
+        check("CFS leaves a process that is ahead alone",
+                ahead.vruntime == 50 * MS);
+        s.next();
+        Dispatcher.Task again = task(8, 0);
+        s.add(again);
+        check("CFS never lowers its minimum charge",
+                s.next() == again
+                    && again.vruntime
+                        == 20 * MS - CpuScheduler.TARGET_LATENCY / 2);
+        s.next();
+
+        check("CFS slice with nobody waiting",
+                s.quantum(normal) == CpuScheduler.TARGET_LATENCY);
+        for (int i = 0; i < 3; i++) {
+            s.add(task(10 + i, 0));
+        }
+        check("CFS slice shrinks with the queue",
+                s.quantum(normal) == CpuScheduler.TARGET_LATENCY / 4);
+        for (int i = 3; i < 30; i++) {
+            s.add(task(10 + i, 0));
+        }
+        check("CFS slice has a floor",
+                s.quantum(normal) == CpuScheduler.MIN_GRANULARITY);
+
+        // Everyone waiting is charged 40ms; normal is a little ahead.
+        normal.vruntime = 41 * MS;
+        normal.slice = CpuScheduler.TARGET_LATENCY;
+        check("CFS runs at least MIN_GRANULARITY",
+                !s.preempt(normal, CpuScheduler.MIN_GRANULARITY - 1));
+        check("CFS preempts once another is far enough behind",
+                s.preempt(normal, CpuScheduler.MIN_GRANULARITY));
+        normal.vruntime = 30 * MS;
+        check("CFS does not preempt the least charged",
+                !s.preempt(normal, CpuScheduler.MIN_GRANULARITY));
+    } // cfs()
+
+    /** Runs two processes on a one-CPU Dispatcher. */
+    private static void dispatcher() {
+        final Dispatcher d = new Dispatcher(CpuScheduler.create("RR"), 1);
+        final List<String> log
+            = Collections.synchronizedList(new ArrayList<String>());
+        final Dispatcher.Task a = d.newTask(1, "a", 0);
+        final Dispatcher.Task b = d.newTask(2, "b", 0);
+        Thread first = new Thread() {
+            public void run() {
+                d.admit(a);
+                pause(3 * CpuScheduler.QUANTUM / MS);
+                // Nobody else is ready yet, so a keeps its CPU.
+                d.preemptionPoint(a);
+                log.add("a runs");
+                pause(3 * CpuScheduler.QUANTUM / MS);
+                log.add("a exits");
+                d.exit(a);
+            }
+        };
+        Thread second = new Thread() {
+            public void run() {
+                d.admit(b);
+                log.add("b runs");
+                d.exit(b);
+            }
+        };
+        first.start();
+        while (log.isEmpty()) {
+            pause(1);
+        }
+        second.start();
+        try {
+            first.join();
+            second.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        check("Dispatcher runs one process at a time",
+                log.equals(Arrays.asList("a runs", "a exits", "b runs")));
+        String report = d.report();
+        check("Dispatcher counts dispatches and preemptions",
+                report.contains("2 dispatches, 0 preemptions"));
+        check("Dispatcher reports every process",
+                report.contains("Kernel: 2 processes"));
+        check("Dispatcher charges CPU time",
+                a.cpuNanos >= 6 * CpuScheduler.QUANTUM
+                    && b.waitNanos >= CpuScheduler.QUANTUM);
+
+        check("utilization of one busy CPU",
+                Dispatcher.utilization(100 * MS, 1, 100 * MS) == 100);
+        check("utilization of two half-busy CPUs",
+                Dispatcher.utilization(100 * MS, 2, 100 * MS) == 50);
+        check("utilization over no time",
+                Dispatcher.utilization(5 * MS, 4, 0) == 0);
+    } // dispatcher()
+
+    /** Creates a task that the scheduler checks can move between queues.
+     * @param pid the process id.
+     * @param nice the nice value.
+     * @return the new task.
+     */
+    private static Dispatcher.Task task(int pid, int nice) {
+        return maker.newTask(pid, "task" + pid, nice);
+    } // task(int, int)
+
+    /** Empties a scheduler.
+     * @param s the scheduler.
+     * @return the pids of its processes, in the order next() returned them,
+     * separated by spaces.
+     */
+    private static String order(CpuScheduler s) {
+        StringBuilder sb = new StringBuilder();
+        for (Dispatcher.Task t; (t = s.next()) != null; ) {
+            sb.append(sb.length() == 0 ? "" : " ").append(t.pid);
+        }
+        return sb.toString();
+    } // order(CpuScheduler)
+
+    /** Sleeps.
+     * @param millis how long, in milliseconds.
+     */
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    } // pause(long)
+} // CpuSchedulerTester
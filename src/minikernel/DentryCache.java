@@ -0,0 +1,211 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** A cache of the results of looking up one name in one directory.
+ * <p>
+ * Each entry maps a (directory, name) pair to the inode number the name
+ * refers to and the type of file it is, which is what path resolution
+ * needs to decide whether to follow a symbolic link.  A name the directory
+ * does not have maps to an entry with inode number -1, so that looking for
+ * a file that does not exist is as cheap as finding one that does.  With
+ * every component of a pathname in the cache, resolving it touches neither
+ * the disk nor the directories themselves.
+ * <p>
+ * At most SIZE entries are kept.  Looking an entry up takes no lock, so
+ * any number of processes can resolve pathnames at once; in place of exact
+ * LRU order, each entry has a bit that is set when it is used, and when
+ * the cache is full a sweep drops entries whose bit is clear and clears
+ * the bit of the others (the clock algorithm).  The file system keeps the
+ * cache right by calling enter() and remove() whenever it changes a
+ * directory, while holding the directory's write lock, and purge() when a
+ * directory is freed, since its inode number may later be given to a new
+ * directory.
+ *
+ * @see FileSys#lookup(int, String)
+ */
+public class DentryCache {
+    /** The most entries kept. */
+    public static final int SIZE = 1024;
+
+    /** What a name that does not exist refers to, for callers that find
+     * out without asking the cache.
+     */
+    public static final Dentry NEGATIVE = new Dentry(-1, Inode.FREE);
+
+    /** The entries. */
+    private final ConcurrentHashMap<Key,Dentry> entries
+        = new ConcurrentHashMap<Key,Dentry>();
+
+    /** Held by the thread sweeping out entries. */
+    private final Object sweeper = new Object();
+
+    /** The number of lookups answered from the cache. */
+    private final AtomicInteger hitCount = new AtomicInteger();
+
+    /** The number of those that found no such name. */
+    private final AtomicInteger negativeCount = new AtomicInteger();
+
+    /** The number of lookups not in the cache. */
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /** Looks up a name.
+     * @param dir the inode number of the directory.
+     * @param name the name.
+     * @return the entry, whose number is -1 if the name is known not to
+     * exist, or null if the cache does not know.
+     */
+    public Dentry get(int dir, String name) {
+        Dentry entry = entries.get(new Key(dir, name));
+        if (entry == null) {
+            missCount.incrementAndGet();
+        } else {
+            entry.used = true;
+            hitCount.incrementAndGet();
+            if (entry.number == -1) {
+                negativeCount.incrementAndGet();
+            }
+        }
+        return entry;
+    } // get(int, String)
+
+    /** Records the result of a lookup, or a new entry in a directory.
+     * @param dir the inode number of the directory.
+     * @param name the name.
+     * @param number the inode number the name refers to, or -1 if there is
+     * no such name.
+     * @param type the type of file the name refers to.
+     * @return the new entry.
+     */
+    public Dentry enter(int dir, String name, int number, byte type) {
+        Dentry entry = new Dentry(number, number == -1 ? Inode.FREE : type);
+        // A new entry counts as used, or a sweep it starts could drop it.
+        entry.used = true;
+        entries.put(new Key(dir, name), entry);
+        if (entries.size() > SIZE) {
+            sweep();
+        }
+        return entry;
+    } // enter(int, String, int, byte)
+
+    /** Records that a name has been removed from a directory.
+     * @param dir the inode number of the directory.
+     * @param name the name.
+     */
+    public void remove(int dir, String name) {
+        enter(dir, name, -1, Inode.FREE);
+    } // remove(int, String)
+
+    /** Drops entries that have not been used recently until the cache is
+     * back within SIZE.  Only one thread sweeps at a time.
+     */
+    private void sweep() {
+        synchronized (sweeper) {
+            while (entries.size() > SIZE) {
+                for (Iterator<Dentry> i = entries.values().iterator();
+                        i.hasNext() && entries.size() > SIZE; ) {
+                    Dentry entry = i.next();
+                    if (entry.used) {
+                        entry.used = false;
+                    } else {
+                        i.remove();
+                    }
+                }
+            }
+        }
+    } // sweep()
+
+    /** Forgets every entry for a directory.
+     * @param dir the inode number of the directory.
+     */
+    public void purge(int dir) {
+        for (Iterator<Key> i = entries.keySet().iterator(); i.hasNext(); ) {
+            if (i.next().dir == dir) {
+                i.remove();
+            }
+        }
+    } // purge(int)
+
+    /** Forgets everything. */
+    public void clear() {
+        entries.clear();
+    } // clear()
+
+    /** Returns the number of lookups answered from the cache.
+     * @return the count.
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Returns the number of lookups that found no such name.
+     * @return the count.
+     */
+    public int getNegativeCount() {
+        return negativeCount.get();
+    }
+
+    /** Returns the number of lookups not in the cache.
+     * @return the count.
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    /** What a name refers to. */
+    public static class Dentry {
+        /** The inode number, or -1. */
+        final int number;
+
+        /** The type of file. */
+        final byte type;
+
+        /** Set when the entry is used, and cleared by the sweep. */
+        volatile boolean used;
+
+        /** Creates a new Dentry.
+         * @param number the inode number.
+         * @param type the type of file.
+         */
+        Dentry(int number, byte type) {
+            this.number = number;
+            this.type = type;
+        } // Dentry.Dentry(int, byte)
+    } // class Dentry
+
+    /** The key of an entry. */
+    private static class Key {
+        /** The inode number of the directory. */
+        final int dir;
+
+        /** The name. */
+        final String name;
+
+        /** Creates a new Key.
+         * @param dir the inode number of the directory.
+         * @param name the name.
+         */
+        Key(int dir, String name) {
+            this.dir = dir;
+            this.name = name;
+        } // Key.Key(int, String)
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.dir == dir && k.name.equals(name);
+        } // Key.equals(Object)
+
+        public int hashCode() {
+            return dir * 31 + name.hashCode();
+        } // Key.hashCode()
+    } // class Key
+} // DentryCache
@@ -0,0 +1,127 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import static minikernel.Checks.*;
+
+/** Checks the DentryCache.
+ * <p>
+ * The cache is used on its own, with made-up directories and names and no
+ * file system behind it.  A name that was entered must be found again, a
+ * name that was removed must come back as a negative entry, and the hit,
+ * negative and miss counts must add up.  Purging one directory must leave
+ * the others alone.  When the cache overflows, the clock sweep must bring
+ * it back to SIZE entries without dropping any entry used since the last
+ * sweep, including the one that was just entered.
+ * <p>
+ * Usage: java minikernel.DentryCacheTester
+ *
+ * @see DentryCache
+ */
+public class DentryCacheTester {
+    /** Main program.
+     * @param args ignored.
+     */
+    public static void main(String args[]) {
+        lookups();
+        changes();
+        sweep();
+        finish();
+    } // main(String[])
+
+    /** Checks get() and the counts. */
+    private static void lookups() {
+        DentryCache c = new DentryCache();
+        check("unknown name misses", c.get(1, "a") == null);
+        c.enter(1, "a", 7, Inode.ORDINARY);
+        DentryCache.Dentry d = c.get(1, "a");
+        check("entered name hits", d != null && d.number == 7
+                && d.type == Inode.ORDINARY);
+        check("directories are kept apart", c.get(2, "a") == null);
+        c.enter(1, "b", -1, Inode.DIRECTORY);
+        d = c.get(1, "b");
+        check("missing name is a negative entry", d != null
+                && d.number == -1 && d.type == Inode.FREE);
+        check("hits counted", c.getHitCount() == 2);
+        check("negative hits counted", c.getNegativeCount() == 1);
+        check("misses counted", c.getMissCount() == 2);
+    } // lookups()
+
+    /** Checks enter(), remove(), purge() and clear(). */
+    private static void changes() {
+        DentryCache c = new DentryCache();
+        c.enter(1, "a", 7, Inode.ORDINARY);
+        c.enter(1, "a", 8, Inode.SYMLINK);
+        check("enter replaces an entry", c.get(1, "a").number == 8
+                && c.get(1, "a").type == Inode.SYMLINK);
+        c.remove(1, "a");
+        check("remove leaves a negative entry", c.get(1, "a").number == -1);
+
+        c.enter(1, "x", 9, Inode.DIRECTORY);
+        c.enter(2, "x", 10, Inode.ORDINARY);
+        c.enter(2, "y", -1, Inode.FREE);
+        c.purge(2);
+        check("purge forgets the directory",
+                c.get(2, "x") == null && c.get(2, "y") == null);
+        check("purge leaves other directories",
+                c.get(1, "x") != null && c.get(1, "a") != null);
+        c.clear();
+        check("clear forgets everything",
+                c.get(1, "x") == null && c.get(1, "a") == null);
+    } // changes()
+
+    /** Checks the clock sweep. */
+    private static void sweep() {
+        DentryCache c = new DentryCache();
+        for (int i = 0; i < DentryCache.SIZE; i++) {
+            c.enter(1, "f" + i, i, Inode.ORDINARY);
+        }
+        check("cache holds SIZE entries", count(c, 0) == DentryCache.SIZE);
+
+        // count() has used every entry; now use only the even ones.
+        for (int i = 0; i < DentryCache.SIZE; i++) {
+            c.get(1, "f" + i).used = false;
+        }
+        for (int i = 0; i < DentryCache.SIZE; i += 2) {
+            c.get(1, "f" + i);
+        }
+        c.enter(1, "extra", DentryCache.SIZE, Inode.ORDINARY);
+        check("sweep keeps the new entry", c.get(1, "extra") != null);
+        boolean kept = true;
+        for (int i = 0; i < DentryCache.SIZE; i += 2) {
+            kept &= c.get(1, "f" + i) != null;
+        }
+        check("sweep keeps entries in use", kept);
+        check("sweep stays within SIZE", count(c, 1) == DentryCache.SIZE);
+
+        // Every entry is in use now, so the sweep has to clear every bit
+        // and go round again.
+        c.enter(1, "more", DentryCache.SIZE + 1, Inode.ORDINARY);
+        check("sweep copes when every entry is in use",
+                count(c, 2) == DentryCache.SIZE);
+    } // sweep()
+
+    /** Counts the entries the sweep() checks made, using each one found.
+     * @param c the cache.
+     * @param extra how many entries beyond "f0" to "f" + (SIZE - 1) may
+     * exist.
+     * @return the number found.
+     */
+    private static int count(DentryCache c, int extra) {
+        int n = 0;
+        for (int i = 0; i < DentryCache.SIZE; i++) {
+            if (c.get(1, "f" + i) != null) {
+                n++;
+            }
+        }
+        if (extra > 0 && c.get(1, "extra") != null) {
+            n++;
+        }
+        if (extra > 1 && c.get(1, "more") != null) {
+            n++;
+        }
+        return n;
+    } // count(DentryCache, int)
+} // DentryCacheTester
@@ -0,0 +1,215 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+
+/** A directory: a file whose contents are a table of names.
+ * The first two entries of every directory are "." and "..".
+ * <p>
+ * Each entry is ENTRY_SIZE bytes long, laid out as follows:
+ * <pre>
+ *     0-1    inode number of the file (0 if the entry is unused)
+ *     2      type of the file, as in the inode
+ *     3      length of the name
+ *     4-35   the name, padded with null bytes
+ * </pre>
+ * Entries never straddle a block boundary, so each block holds
+ * ENTRIES_PER_BLOCK of them.  The directory grows a block at a time as
+ * entries are added, and the slots of removed entries are reused.
+ * <p>
+ * The whole table is read once, when the Directory is created, into a hash
+ * index from name to slot, so lookups, additions and removals never search
+ * the table.
+ * <p>
+ * A Directory does no locking of its own; it is used only while the
+ * directory's inode lock is held.
+ *
+ * @see FileSys
+ */
+public class Directory {
+    /** The size of one directory entry, in bytes. */
+    public static final int ENTRY_SIZE = 36;
+
+    /** The longest name a directory entry can hold. */
+    public static final int NAME_SIZE = ENTRY_SIZE - 4;
+
+    /** The number of entries stored in each block of a directory. */
+    public static final int ENTRIES_PER_BLOCK = Disk.BLOCK_SIZE / ENTRY_SIZE;
+
+    /** The file system holding the directory. */
+    private final FileSys filesys;
+
+    /** The inode of the directory file. */
+    private final Inode inode;
+
+    /** Maps each name in the directory to its slot. */
+    private final HashMap<String,Integer> index = new HashMap<String,Integer>();
+
+    /** The name in each slot, or null for an unused slot. */
+    private final ArrayList<String> names = new ArrayList<String>();
+
+    /** The inode number in each slot, or 0 for an unused slot. */
+    private int inodes[] = new int[ENTRIES_PER_BLOCK];
+
+    /** The file type recorded in each slot. */
+    private byte types[] = new byte[ENTRIES_PER_BLOCK];
+
+    /** Bit i is set if slot i is in use. */
+    private final BitSet usedSlots = new BitSet();
+
+    /** Loads a directory from the disk.
+     * @param filesys the file system holding the directory.
+     * @param inode the inode of the directory file.
+     */
+    public Directory(FileSys filesys, Inode inode) {
+        this.filesys = filesys;
+        this.inode = inode;
+
+        byte block[] = new byte[Disk.BLOCK_SIZE];
+        int slots = slotCount();
+        for (int slot = 0; slot < slots; slot++) {
+            if (slot % ENTRIES_PER_BLOCK == 0) {
+                filesys.readFile(inode, slot / ENTRIES_PER_BLOCK * Disk.BLOCK_SIZE,
+                        block, 0, Disk.BLOCK_SIZE);
+            }
+            int offset = (slot % ENTRIES_PER_BLOCK) * ENTRY_SIZE;
+            int number = Inode.getShort(block, offset);
+            if (number != 0) {
+                int length = block[offset + 3] & 0xff;
+                remember(slot, new String(block, offset + 4, length), number,
+                        block[offset + 2]);
+            }
+        }
+    } // Directory(FileSys, Inode)
+
+    /** Returns the inode of the directory file.
+     * @return the inode.
+     */
+    public Inode getInode() {
+        return inode;
+    }
+
+    /** Looks up a name.
+     * @param name the name to look for.
+     * @return the inode number it refers to, or -1 if it is not present.
+     */
+    public int lookup(String name) {
+        Integer slot = index.get(name);
+        return slot == null ? -1 : inodes[slot];
+    } // lookup(String)
+
+    /** Returns the type of file an entry refers to.
+     * @param name the name of the entry.
+     * @return the type recorded in the entry, or Inode.FREE if it is not
+     * present.
+     */
+    public byte getType(String name) {
+        Integer slot = index.get(name);
+        return slot == null ? Inode.FREE : types[slot];
+    } // getType(String)
+
+    /** Adds an entry, writing it to the first unused slot.
+     * @param name the name of the new entry.  It must not already be present
+     * and must be no longer than NAME_SIZE bytes.
+     * @param number the inode number the entry refers to.
+     * @param type the type of the file.
+     * @return true on success, false if the directory could not grow because
+     * the disk is full.
+     */
+    public boolean add(String name, int number, byte type) {
+        byte nameBytes[] = name.getBytes();
+        byte entry[] = new byte[ENTRY_SIZE];
+        Inode.putShort(entry, 0, number);
+        entry[2] = type;
+        entry[3] = (byte) nameBytes.length;
+        System.arraycopy(nameBytes, 0, entry, 4, nameBytes.length);
+
+        int slot = usedSlots.nextClearBit(0);
+        if (filesys.writeFile(inode, offsetOf(slot), entry, 0, ENTRY_SIZE)
+                < ENTRY_SIZE) {
+            return false;
+        }
+        remember(slot, name, number, type);
+        return true;
+    } // add(String, int, byte)
+
+    /** Removes an entry.
+     * @param name the name of the entry.
+     * @return the inode number it referred to, or -1 if it was not present.
+     */
+    public int remove(String name) {
+        Integer slot = index.remove(name);
+        if (slot == null) {
+            return -1;
+        }
+        int number = inodes[slot];
+        byte entry[] = new byte[ENTRY_SIZE];
+        filesys.writeFile(inode, offsetOf(slot), entry, 0, ENTRY_SIZE);
+        names.set(slot, null);
+        inodes[slot] = 0;
+        types[slot] = Inode.FREE;
+        usedSlots.clear(slot);
+        return number;
+    } // remove(String)
+
+    /** Returns the names in the directory, in the order they are stored.
+     * @return a new list of names.
+     */
+    public List<String> list() {
+        List<String> result = new ArrayList<String>(index.size());
+        for (int slot = usedSlots.nextSetBit(0);
+                slot >= 0; slot = usedSlots.nextSetBit(slot + 1)) {
+            result.add(names.get(slot));
+        }
+        return result;
+    } // list()
+
+    /** Returns the number of entries in the directory.
+     * @return the entry count.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /** Records an entry in the in-memory index.
+     * @param slot the slot holding the entry.
+     * @param name the name of the entry.
+     * @param number the inode number it refers to.
+     * @param type the type of the file.
+     */
+    private void remember(int slot, String name, int number, byte type) {
+        while (names.size() <= slot) {
+            names.add(null);
+        }
+        if (slot >= inodes.length) {
+            inodes = Arrays.copyOf(inodes, Math.max(slot + 1, inodes.length * 2));
+            types = Arrays.copyOf(types, inodes.length);
+        }
+        names.set(slot, name);
+        inodes[slot] = number;
+        types[slot] = type;
+        usedSlots.set(slot);
+        index.put(name, slot);
+    } // remember(int, String, int, byte)
+
+    /** Returns the number of slots in the directory file, used or not.
+     * @return the slot count.
+     */
+    private int slotCount() {
+        int blocks = inode.getSize() / Disk.BLOCK_SIZE;
+        int rest = inode.getSize() % Disk.BLOCK_SIZE;
+        return blocks * ENTRIES_PER_BLOCK + rest / ENTRY_SIZE;
+    } // slotCount()
+
+    /** Returns the position of a slot within the directory file.
+     * @param slot the slot number.
+     * @return its offset in bytes.
+     */
+    private static int offsetOf(int slot) {
+        return slot / ENTRIES_PER_BLOCK * Disk.BLOCK_SIZE
+            + slot % ENTRIES_PER_BLOCK * ENTRY_SIZE;
+    } // offsetOf(int)
+} // Directory
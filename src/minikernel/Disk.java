@@ -8,11 +8,10 @@ package minikernel;
 /* $Id: Disk.java,v 1.17 2006/11/09 20:42:29 solomon Exp $ */
 
 import java.io.*;
+import java.util.*;
 import static java.lang.System.*;
 
 /** A software simulation of a Disk.
- * <p>
- * <b>You may not change this class.</b>
  * <p>
  * This disk is slow and ornery.
  * It contains a number of blocks, all BLOCK_SIZE bytes long.
@@ -32,6 +31,12 @@ import static java.lang.System.*;
  * disk is busy! If you don't treat
  * the Disk gently, the system will crash! (Just like a real machine!)
  * <p>
+ * Alternatively, beginBatch() hands the controller a list of operations.
+ * It may be called at any time; the controller takes everything queued this
+ * way each time it wakes up, carries the operations out in order, moving
+ * through runs of adjacent blocks in a single sweep, and then calls
+ * Kernel.interrupt() once for the whole batch.
+ * <p>
  * This disk saves its contents in the Unix file DISK between runs.
  * Since the file can be large, you should get in the habit of removing it
  * before logging off.
@@ -84,6 +89,20 @@ public class Disk implements Runnable {
     /** A count of write operations performed, for statistics. */
     protected int writeCount;
 
+    /** The total distance, in blocks, the head has moved, for statistics. */
+    protected long headTravel;
+
+    /** An indication whether the current operation only moves the head.
+     * Only meaningful if busy == true.
+     */
+    private boolean isSeeking;
+
+    /** Operations queued by beginBatch and not yet started, in order. */
+    private final LinkedList<Operation> pending = new LinkedList<Operation>();
+
+    /** A count of interrupts raised, for statistics. */
+    protected int interruptCount;
+
     /////////////////////////////////////////// Inner classes
 
     /** The exception thrown when an illegal operation is attempted on the
@@ -100,6 +119,41 @@ public class Disk implements Runnable {
         }
     }
 
+    /** One operation queued by beginBatch. */
+    private static class Operation {
+        /** The block to read, write or seek to. */
+        final int blockNumber;
+
+        /** The data area, or null for a seek. */
+        final byte buffer[];
+
+        /** True for a write. */
+        final boolean isWriting;
+
+        /** Creates a new Operation.
+         * @param blockNumber the block to read, write or seek to.
+         * @param buffer the data area, or null for a seek.
+         * @param isWriting true for a write.
+         */
+        Operation(int blockNumber, byte buffer[], boolean isWriting) {
+            this.blockNumber = blockNumber;
+            this.buffer = buffer;
+            this.isWriting = isWriting;
+        }
+
+        /** Checks whether this operation can be done in the same sweep as
+         * another that precedes it.
+         * @param previous the preceding operation.
+         * @return true if both move data in the same direction and this one
+         * is on the next block.
+         */
+        boolean follows(Operation previous) {
+            return buffer != null && previous.buffer != null
+                && isWriting == previous.isWriting
+                && blockNumber == previous.blockNumber + 1;
+        }
+    } // class Operation
+
     /////////////////////////////////////////// Constructors
 
     /** Creates a new Disk.
@@ -113,6 +167,27 @@ public class Disk implements Runnable {
      * @param size the total size of this disk, in blocks.
      */
     public Disk(int size) {
+        this(size, true);
+    } // Disk(int)
+
+    /** Creates a new Disk, optionally without reading the DISK file.
+     * Subclasses that keep the contents somewhere other than the data array
+     * pass false for loadImage, in which case data is left null and the
+     * subclass is responsible for the DISK file.  A Disk that is only used
+     * for measurements, such as those made by DiskBenchmark, is created the
+     * same way and then formatted.
+     *
+     * @param size the total size of this disk, in blocks.
+     * @param loadImage true to read the DISK file into the data array.
+     */
+    protected Disk(int size, boolean loadImage) {
+        this.DISK_SIZE = size;
+        if (size < 1) {
+            throw new DiskException("A disk must have at least one block!");
+        }
+        if (!loadImage) {
+            return;
+        }
         File diskName = new File("DISK");
         if (diskName.exists()) {
             if (diskName.length() != size * BLOCK_SIZE) {
@@ -120,10 +195,6 @@ public class Disk implements Runnable {
                     "File DISK exists but is the wrong size");
             }
         }
-        this.DISK_SIZE = size;
-        if (size < 1) {
-            throw new DiskException("A disk must have at least one block!");
-        }
         // NOTE:  the "new" operator always clears the result object to nulls
         data = new byte[DISK_SIZE * BLOCK_SIZE];
         int count = BLOCK_SIZE;
@@ -154,7 +225,7 @@ public class Disk implements Runnable {
 //                data, i * BLOCK_SIZE,
 //                BLOCK_SIZE);
 //        }
-    } // Disk(int)
+    } // Disk(int, boolean)
 
     /////////////////////////////////////////// Methods
 
@@ -205,13 +276,25 @@ public class Disk implements Runnable {
      * @param targetBlock the block number to which we have to seek.
      */
     protected void delay(int targetBlock) {
-        int sleepTime = 10 + Math.abs(targetBlock - currentBlock) / 5;
+        delay(targetBlock, 1);
+    } // delay(int)
+
+    /** Sleeps for a while to simulate seeking to a run of adjacent blocks
+     * and sweeping across it.  The run is charged as one operation whose
+     * head movement includes the sweep.
+     * @param targetBlock the first block of the run.
+     * @param count the number of blocks in the run.
+     */
+    protected void delay(int targetBlock, int count) {
+        int distance = Math.abs(targetBlock - currentBlock) + count - 1;
+        headTravel += distance;
+        int sleepTime = 10 + distance / 5;
         try {
             Thread.sleep(sleepTime);
         } catch (Exception e) {
             e.printStackTrace();
         }
-    } // delay(int)
+    } // delay(int, int)
 
     /** Starts a new read operation.
     * @param blockNumber The block number to read from.
@@ -232,12 +315,13 @@ public class Disk implements Runnable {
                         + " buffer " + buffer);
         }
 
-        if (busy) {
+        if (busy || !pending.isEmpty()) {
             throw new DiskException("Disk read attempted "
                         + " while the disk was still busy.");
         }
 
         isWriting = false;
+        isSeeking = false;
         this.buffer = buffer;
         targetBlock = blockNumber;
         requestQueued = true;
@@ -264,12 +348,13 @@ public class Disk implements Runnable {
                         + " buffer " + buffer);
         }
 
-        if (busy) {
+        if (busy || !pending.isEmpty()) {
             throw new DiskException("Disk write attempted "
                         + " while the disk was still busy.");
         }
 
         isWriting = true;
+        isSeeking = false;
         this.buffer = buffer;
         targetBlock = blockNumber;
         requestQueued = true;
@@ -277,24 +362,166 @@ public class Disk implements Runnable {
         notify();
     } // beginWrite(int, byte[])
 
-    /** Waits for a call to beginRead or beginWrite. */
+    /** Starts moving the head to a block without transferring any data.
+    * Like a read or write, a seek interrupts when it completes.  A disk
+    * scheduler uses it to sweep the head to the edge of the disk.
+    * @param blockNumber The block number to move to.
+    */
+    public synchronized void beginSeek(int blockNumber) {
+        if (blockNumber < 0 || blockNumber >= DISK_SIZE) {
+            throw new DiskException("Illegal disk seek request: "
+                        + " block number " + blockNumber);
+        }
+
+        if (busy || !pending.isEmpty()) {
+            throw new DiskException("Disk seek attempted "
+                        + " while the disk was still busy.");
+        }
+
+        isWriting = false;
+        isSeeking = true;
+        this.buffer = null;
+        targetBlock = blockNumber;
+        requestQueued = true;
+
+        notify();
+    } // beginSeek(int)
+
+    /** Queues a batch of operations.
+    * Unlike the other begin methods, this may be called while the disk is
+    * busy; the operations are started, in order, after everything queued
+    * before them.  A single interrupt, with i1 set to the number of
+    * operations done, is raised when the controller has finished all the
+    * operations it took in one wakeup, which may include other batches.
+    * @param blockNumbers The block number of each operation.
+    * @param buffers The data area of each operation, or null for a seek.
+    *               Each array must have length at least BLOCK_SIZE.
+    * @param writing Whether each operation is a write.
+    */
+    public synchronized void beginBatch(int blockNumbers[], byte buffers[][],
+            boolean writing[])
+    {
+        for (int i = 0; i < blockNumbers.length; i++) {
+            if (
+                    blockNumbers[i] < 0
+                    || blockNumbers[i] >= DISK_SIZE
+                    || (buffers[i] != null && buffers[i].length < BLOCK_SIZE))
+            {
+                throw new DiskException("Illegal disk batch request: "
+                            + " block number " + blockNumbers[i]
+                            + " buffer " + buffers[i]);
+            }
+        }
+        for (int i = 0; i < blockNumbers.length; i++) {
+            pending.add(new Operation(blockNumbers[i], buffers[i], writing[i]));
+        }
+
+        notify();
+    } // beginBatch(int[], byte[][], boolean[])
+
+    /** Returns the total distance the head has moved.
+     * @return the head travel, in blocks.
+     */
+    public long getHeadTravel() {
+        return headTravel;
+    }
+
+    /** Returns the number of interrupts the disk has raised.
+     * @return the interrupt count.
+     */
+    public int getInterruptCount() {
+        return interruptCount;
+    }
+
+    /** Waits for a call to beginRead, beginWrite, beginSeek or beginBatch. */
     protected synchronized void waitForRequest() {
-        while(!requestQueued) {
+        while(!requestQueued && pending.isEmpty()) {
             try {
                 wait();
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
-        requestQueued = false;
         busy = true;
     } // waitForRequest()
 
+    /** Takes the operations queued by beginBatch.
+     * @return the operations, in order, or null if the request that woke
+     * the controller came from beginRead, beginWrite or beginSeek.
+     */
+    private synchronized List<Operation> takeBatch() {
+        if (requestQueued) {
+            requestQueued = false;
+            return null;
+        }
+        List<Operation> batch = new ArrayList<Operation>(pending);
+        pending.clear();
+        return batch;
+    } // takeBatch()
+
+    /** Carries out a batch of operations.
+     * Each run of adjacent blocks read or written in a row costs a single
+     * seek.
+     * @param batch the operations, in order.
+     */
+    private void doBatch(List<Operation> batch) {
+        int i = 0;
+        while (i < batch.size()) {
+            Operation first = batch.get(i);
+            int n = 1;
+            while (i + n < batch.size()
+                    && batch.get(i + n).follows(batch.get(i + n - 1))) {
+                n++;
+            }
+
+            // Pause to do the operations
+            delay(first.blockNumber, n);
+
+            // Move the data.
+            for (int k = i; k < i + n; k++) {
+                Operation op = batch.get(k);
+                if (op.buffer == null) {
+                    // Nothing to transfer.
+                } else if (op.isWriting) {
+                    arraycopy(
+                        op.buffer, 0,
+                        data, op.blockNumber * BLOCK_SIZE,
+                        BLOCK_SIZE);
+                    writeCount++;
+                } else {
+                    arraycopy(
+                        data, op.blockNumber * BLOCK_SIZE,
+                        op.buffer, 0,
+                        BLOCK_SIZE);
+                    readCount++;
+                }
+            }
+            synchronized (this) {
+                currentBlock = first.blockNumber + n - 1;
+            }
+            i += n;
+        }
+    } // doBatch(List)
+
+    /** Indicates to the CPU that a batch of operations has completed.
+     * @param count the number of operations in the batch.
+     */
+    private void finishBatch(int count) {
+        synchronized (this) {
+            busy = false;
+            interruptCount++;
+        }
+        // As in finishOperation, interrupt outside the critical section.
+        Kernel.interrupt(Kernel.INTERRUPT_DISK,
+            count,0,null,null,null);
+    } // finishBatch(int)
+
     /** Indicates to the CPU that the current operation has completed. */
     protected void finishOperation() {
         synchronized (this) {
             busy = false;
             currentBlock = targetBlock;
+            interruptCount++;
         }
         // NOTE:  The interrupt needs to be outside the critical section
         // to avoid a race condition:  The interrupt handler in the kernel
@@ -302,23 +529,33 @@ public class Disk implements Runnable {
         // which would deadlock if the interrupt handler were invoked with
         // the disk mutex locked.
         Kernel.interrupt(Kernel.INTERRUPT_DISK,
-            0,0,null,null,null);
+            1,0,null,null,null);
     } // finishOperation()
 
     /** This method simulates the internal microprocessor of the disk
      * controler.  It repeatedly waits for a start signal, does an I/O
-     * operation, and sends an interrupt to the CPU.
+     * operation, or all the queued batch operations, and sends an interrupt
+     * to the CPU.
      * This method should <em>not</em> be called directly.
      */
     public void run() {
         for (;;) {
             waitForRequest();
 
+            List<Operation> batch = takeBatch();
+            if (batch != null) {
+                doBatch(batch);
+                finishBatch(batch.size());
+                continue;
+            }
+
             // Pause to do the operation
             delay(targetBlock);
 
             // Move the data.
-            if (isWriting) {
+            if (isSeeking) {
+                // Nothing to transfer.
+            } else if (isWriting) {
                 arraycopy(
                     buffer, 0,
                     data, targetBlock * BLOCK_SIZE,
@@ -0,0 +1,150 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+import static java.lang.System.*;
+
+/** Compares the disk scheduling policies on the slow Disk.
+ * <p>
+ * For each policy in DiskScheduler.POLICIES, a fresh Disk is driven through a
+ * DiskQueue by a number of simulated processes.  Each process issues a fixed
+ * sequence of random reads and writes, one at a time, waiting for each to
+ * complete before issuing the next; the sequences are the same for every
+ * policy.  The benchmark reports, per policy, the mean, 95th and 99th
+ * percentile latency of a request, the total distance the head travelled, the
+ * number of disk interrupts, and the elapsed time.
+ * <p>
+ * The disk used is not backed by the DISK file, which is left alone.
+ * <p>
+ * Usage: java minikernel.DiskBenchmark [ diskSize [ processes [ requests ] ] ]
+ *
+ * @see DiskScheduler
+ * @see DiskQueue
+ */
+public class DiskBenchmark {
+    /** Main program.
+     * @param args the disk size in blocks, the number of processes and the
+     * number of requests per process, all optional.
+     */
+    public static void main(String args[]) {
+        int diskSize = 1000;
+        int processes = 8;
+        int requests = 20;
+        try {
+            if (args.length > 0) {
+                diskSize = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                processes = Integer.parseInt(args[1]);
+            }
+            if (args.length > 2) {
+                requests = Integer.parseInt(args[2]);
+            }
+        } catch (NumberFormatException e) {
+            err.println(
+                "usage: DiskBenchmark [ diskSize [ processes [ requests ] ] ]");
+            exit(1);
+        }
+
+        out.printf("%d blocks, %d processes, %d requests each\n",
+                diskSize, processes, requests);
+        out.printf("%-8s %10s %10s %10s %12s %10s %10s\n",
+                "policy", "mean ms", "p95 ms", "p99 ms", "head travel",
+                "interrupts", "elapsed s");
+        for (String policy : DiskScheduler.POLICIES) {
+            run(policy, diskSize, processes, requests);
+        }
+        exit(0);
+    } // main(String[])
+
+    /** Measures one policy.
+     * @param policy the name of the policy.
+     * @param diskSize the number of blocks on the disk.
+     * @param processes the number of simulated processes.
+     * @param requests the number of requests each process issues.
+     */
+    private static void run(String policy, int diskSize,
+            int processes, int requests)
+    {
+        Disk disk = new Disk(diskSize, false);
+        disk.format();
+        Thread diskThread = new Thread(disk, "DISK");
+        diskThread.setDaemon(true);
+        diskThread.start();
+
+        DiskQueue queue = new DiskQueue(disk,
+                DiskScheduler.create(policy, diskSize), true);
+        Kernel.setDiskQueue(queue);
+
+        long start = nanoTime();
+        Thread workers[] = new Thread[processes];
+        for (int i = 0; i < processes; i++) {
+            workers[i] = new Worker(queue, i, diskSize, requests);
+            workers[i].start();
+        }
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        double elapsed = (nanoTime() - start) / 1e9;
+
+        out.printf("%-8s %10.1f %10.1f %10.1f %12d %10d %10.1f\n",
+                policy,
+                queue.getMeanLatency(),
+                queue.getLatencyPercentile(95),
+                queue.getLatencyPercentile(99),
+                queue.getHeadTravel(),
+                disk.getInterruptCount(),
+                elapsed);
+    } // run(String, int, int, int)
+
+    /** One simulated process. */
+    private static class Worker extends Thread {
+        /** The queue to send requests to. */
+        private final DiskQueue queue;
+
+        /** The source of block numbers, seeded so that every policy sees
+         * the same requests.
+         */
+        private final Random random;
+
+        /** The number of blocks on the disk. */
+        private final int diskSize;
+
+        /** The number of requests to issue. */
+        private final int requests;
+
+        /** Creates a new Worker.
+         * @param queue the queue to send requests to.
+         * @param id the number of this process.
+         * @param diskSize the number of blocks on the disk.
+         * @param requests the number of requests to issue.
+         */
+        Worker(DiskQueue queue, int id, int diskSize, int requests) {
+            super("Worker " + id);
+            this.queue = queue;
+            this.random = new Random(id);
+            this.diskSize = diskSize;
+            this.requests = requests;
+        } // Worker.Worker(DiskQueue, int, int, int)
+
+        /** Issues the requests, one at a time.  One in four is a write. */
+        public void run() {
+            byte buffer[] = new byte[Disk.BLOCK_SIZE];
+            for (int i = 0; i < requests; i++) {
+                int block = random.nextInt(diskSize);
+                if (random.nextInt(4) == 0) {
+                    queue.writeAsync(block, buffer, 0).join();
+                } else {
+                    queue.readAsync(block, buffer, 0).join();
+                }
+            }
+        } // Worker.run()
+    } // class Worker
+} // DiskBenchmark
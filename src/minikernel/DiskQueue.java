@@ -0,0 +1,478 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.*;
+
+/** The kernel's queue of requests for the slow Disk.
+ * <p>
+ * The Disk can only work on one request at a time: beginRead and beginWrite
+ * throw an exception if it is busy, and it calls Kernel.interrupt with
+ * INTERRUPT_DISK when it finishes.  A DiskQueue lets any number of threads
+ * have requests outstanding at once.  readAsync and writeAsync add a request
+ * to the queue and return a future that completes when the data has been
+ * transferred.  Whenever the Disk is idle, the DiskScheduler orders up to
+ * MAX_BATCH waiting requests and they are handed to the Disk as one batch,
+ * which it works through in a single wakeup; the kernel calls interrupt() on
+ * the one disk interrupt that ends the batch to complete the requests and
+ * start the next batch.
+ * <p>
+ * A queue created with timing on records how long each request took from
+ * being queued to being completed, for DiskBenchmark.  The kernel's queue
+ * runs for as long as the kernel does, so it only counts requests.
+ * <p>
+ * A DiskQueue is also a BlockDevice, so the file system can use the slow Disk
+ * through it.  Its synchronous methods queue every block of the request at
+ * once and then wait for all of them.
+ * <p>
+ * The queue is guarded by a ReentrantLock rather than its monitor.  A
+ * virtual thread that waits on a monitor keeps its carrier thread (on Java
+ * 21 to 23), and threads wait here for the disk to go idle.
+ *
+ * @see Disk
+ * @see DiskScheduler
+ * @see Kernel#INTERRUPT_DISK
+ */
+public class DiskQueue implements BlockDevice {
+    /** The largest number of requests handed to the disk at once.  Requests
+     * that arrive while a batch is in progress wait for the next one, so this
+     * bounds how long they wait.
+     */
+    public static final int MAX_BATCH = 32;
+
+    /** The disk being driven. */
+    private final Disk disk;
+
+    /** Requests waiting for the disk. */
+    private final DiskScheduler scheduler;
+
+    /** Guards everything here. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled whenever a batch finishes. */
+    private final Condition batchDone = lock.newCondition();
+
+    /** The requests in the batch the disk is working on, in order. */
+    private final LinkedList<Request> inFlight = new LinkedList<Request>();
+
+    /** The block the head was last sent to. */
+    private int head;
+
+    /** The time in nanoseconds each completed request took, in order of
+     * completion, or null if timing is off.  Only the first completed
+     * entries are meaningful.
+     */
+    private long latencies[];
+
+    /** The number of requests completed. */
+    private int completed;
+
+    /** One disk operation. */
+    static class Request {
+        /** The block to read, write or seek to. */
+        final int blockNumber;
+
+        /** True for a write, false for a read or seek. */
+        final boolean isWriting;
+
+        /** True for a seek, made up by the scheduler, that moves no data. */
+        final boolean isSeek;
+
+        /** The data handed to the disk, or null for a seek. */
+        final byte block[];
+
+        /** Where the data read is delivered. */
+        final byte buffer[];
+
+        /** Where in buffer the data read is delivered. */
+        final int offset;
+
+        /** Completed when the operation is. */
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        /** When the request was queued, from System.nanoTime(). */
+        final long queuedAt = System.nanoTime();
+
+        /** Creates a new Request.
+         * @param blockNumber the block to read or write.
+         * @param isWriting true for a write, false for a read.
+         * @param buffer the caller's data area.
+         * @param offset where in buffer the block starts.
+         */
+        Request(int blockNumber, boolean isWriting, byte buffer[], int offset) {
+            this.blockNumber = blockNumber;
+            this.isWriting = isWriting;
+            this.isSeek = (buffer == null);
+            this.buffer = buffer;
+            this.offset = offset;
+            this.block = isSeek ? null : new byte[Disk.BLOCK_SIZE];
+            if (isWriting) {
+                System.arraycopy(buffer, offset, block, 0, Disk.BLOCK_SIZE);
+            }
+        } // Request.Request(int, boolean, byte[], int)
+
+        /** Creates a request that only moves the head.
+         * @param blockNumber the block to move to.
+         * @return the new request.
+         */
+        static Request seek(int blockNumber) {
+            return new Request(blockNumber, false, null, 0);
+        } // Request.seek(int)
+    } // class Request
+
+    /** Creates a new queue in front of a disk, with timing off.
+     * The disk's thread must already be running.
+     * @param disk the disk to drive.
+     * @param scheduler the policy for ordering requests.
+     */
+    public DiskQueue(Disk disk, DiskScheduler scheduler) {
+        this(disk, scheduler, false);
+    } // DiskQueue(Disk, DiskScheduler)
+
+    /** Creates a new queue in front of a disk.
+     * The disk's thread must already be running.
+     * @param disk the disk to drive.
+     * @param scheduler the policy for ordering requests.
+     * @param timed true to record the latency of every request, which
+     * costs memory for as long as the queue is used.
+     */
+    public DiskQueue(Disk disk, DiskScheduler scheduler, boolean timed) {
+        this.disk = disk;
+        this.scheduler = scheduler;
+        if (timed) {
+            latencies = new long[64];
+        }
+    } // DiskQueue(Disk, DiskScheduler, boolean)
+
+    /** Queues a read of one block.
+     * @param blockNumber the block to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the block.
+     * @return a future that completes once the data is in buffer.
+     */
+    public CompletableFuture<Void> readAsync(int blockNumber,
+            byte buffer[], int offset)
+    {
+        checkRequest(blockNumber, buffer, offset);
+        return submit(new Request(blockNumber, false, buffer, offset));
+    } // readAsync(int, byte[], int)
+
+    /** Queues a write of one block.
+     * The data is copied before this method returns, so the caller may reuse
+     * buffer straight away.
+     * @param blockNumber the block to write.
+     * @param buffer a data area holding the data to be written.
+     * @param offset where in buffer the block starts.
+     * @return a future that completes once the data is on the disk.
+     */
+    public CompletableFuture<Void> writeAsync(int blockNumber,
+            byte buffer[], int offset)
+    {
+        checkRequest(blockNumber, buffer, offset);
+        return submit(new Request(blockNumber, true, buffer, offset));
+    } // writeAsync(int, byte[], int)
+
+    /** Handles a disk interrupt: completes the requests that finished and
+     * starts the next batch.  Called by the kernel for INTERRUPT_DISK.
+     * @param count the number of operations the disk completed.
+     */
+    public void interrupt(int count) {
+        List<Request> finished = new ArrayList<Request>(count);
+        lock.lock();
+        try {
+            for (int i = 0; i < count && !inFlight.isEmpty(); i++) {
+                finished.add(inFlight.poll());
+            }
+            startBatch();
+            batchDone.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long now = System.nanoTime();
+        for (Request r : finished) {
+            if (r.isSeek) {
+                continue;
+            }
+            record(now - r.queuedAt);
+            if (!r.isWriting) {
+                System.arraycopy(r.block, 0, r.buffer, r.offset,
+                        Disk.BLOCK_SIZE);
+            }
+            // Complete outside the lock, since callbacks may queue more
+            // requests.
+            r.done.complete(null);
+        }
+    } // interrupt(int)
+
+    /** Returns the number of requests queued or in progress.
+     * @return the queue length.
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return scheduler.size() + inFlight.size();
+        } finally {
+            lock.unlock();
+        }
+    } // getQueueLength()
+
+    /** Returns the number of requests completed so far.
+     * @return the count.
+     */
+    public int getCompletedCount() {
+        lock.lock();
+        try {
+            return completed;
+        } finally {
+            lock.unlock();
+        }
+    } // getCompletedCount()
+
+    /** Returns the mean time from queueing a request to completing it.
+     * @return the mean latency in milliseconds, or 0 if nothing has
+     * completed or timing is off.
+     */
+    public double getMeanLatency() {
+        lock.lock();
+        try {
+            if (latencies == null || completed == 0) {
+                return 0;
+            }
+            long total = 0;
+            for (int i = 0; i < completed; i++) {
+                total += latencies[i];
+            }
+            return total / 1e6 / completed;
+        } finally {
+            lock.unlock();
+        }
+    } // getMeanLatency()
+
+    /** Returns a percentile of the time from queueing a request to
+     * completing it.
+     * @param percent the percentile, for example 99 for the 99th.
+     * @return the latency in milliseconds, or 0 if nothing has completed
+     * or timing is off.
+     */
+    public double getLatencyPercentile(double percent) {
+        long sorted[];
+        lock.lock();
+        try {
+            if (latencies == null) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(latencies, completed);
+        } finally {
+            lock.unlock();
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))] / 1e6;
+    } // getLatencyPercentile(double)
+
+    /** Returns the total distance the disk head has moved.
+     * @return the head travel, in blocks.
+     */
+    public long getHeadTravel() {
+        return disk.getHeadTravel();
+    }
+
+    ////////////////////////////////////////// BlockDevice
+
+    public int getBlockSize() {
+        return Disk.BLOCK_SIZE;
+    }
+
+    public int getSize() {
+        return disk.DISK_SIZE;
+    }
+
+    public void read(int blockNumber, byte buffer[]) {
+        readAsync(blockNumber, buffer, 0).join();
+    } // read(int, byte[])
+
+    public void write(int blockNumber, byte buffer[]) {
+        writeAsync(blockNumber, buffer, 0).join();
+    } // write(int, byte[])
+
+    public void readBlocks(int start, int count, byte buffer[], int offset) {
+        CompletableFuture<?> pending[] = new CompletableFuture<?>[count];
+        for (int i = 0; i < count; i++) {
+            pending[i] = readAsync(start + i, buffer,
+                    offset + i * Disk.BLOCK_SIZE);
+        }
+        CompletableFuture.allOf(pending).join();
+    } // readBlocks(int, int, byte[], int)
+
+    public void readBlocks(int blocks[], byte buffer[], int offset) {
+        CompletableFuture<?> pending[] = new CompletableFuture<?>[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            pending[i] = readAsync(blocks[i], buffer,
+                    offset + i * Disk.BLOCK_SIZE);
+        }
+        CompletableFuture.allOf(pending).join();
+    } // readBlocks(int[], byte[], int)
+
+    public CompletableFuture<Void> readBlocksAsync(int start, int count,
+            byte buffer[], int offset)
+    {
+        CompletableFuture<?> pending[] = new CompletableFuture<?>[count];
+        for (int i = 0; i < count; i++) {
+            pending[i] = readAsync(start + i, buffer,
+                    offset + i * Disk.BLOCK_SIZE);
+        }
+        return CompletableFuture.allOf(pending);
+    } // readBlocksAsync(int, int, byte[], int)
+
+    public void writeBlocks(int start, int count, byte buffer[], int offset) {
+        CompletableFuture<?> pending[] = new CompletableFuture<?>[count];
+        for (int i = 0; i < count; i++) {
+            pending[i] = writeAsync(start + i, buffer,
+                    offset + i * Disk.BLOCK_SIZE);
+        }
+        CompletableFuture.allOf(pending).join();
+    } // writeBlocks(int, int, byte[], int)
+
+    public void writeBlocks(int blocks[], byte buffer[], int offset) {
+        CompletableFuture<?> pending[] = new CompletableFuture<?>[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            pending[i] = writeAsync(blocks[i], buffer,
+                    offset + i * Disk.BLOCK_SIZE);
+        }
+        CompletableFuture.allOf(pending).join();
+    } // writeBlocks(int[], byte[], int)
+
+    /** Formats the disk, once every queued request has finished. */
+    public void format() {
+        waitUntilIdle();
+        disk.format();
+    } // format()
+
+    /** Waits for every queued request to finish.
+     * The slow Disk only saves its contents in flush(), so nothing more is
+     * done.
+     * @return 0.
+     */
+    public int checkpoint() {
+        waitUntilIdle();
+        return 0;
+    } // checkpoint()
+
+    /** Saves the contents of the disk, once every queued request has
+     * finished.
+     */
+    public void flush() {
+        waitUntilIdle();
+        disk.flush();
+    } // flush()
+
+    ////////////////////////////////////////// Private methods
+
+    /** Adds a request to the queue, starting it if the disk is idle.
+     * @param r the request.
+     * @return the future that completes with r.
+     */
+    private CompletableFuture<Void> submit(Request r) {
+        lock.lock();
+        try {
+            scheduler.add(r);
+            startBatch();
+        } finally {
+            lock.unlock();
+        }
+        return r.done;
+    } // submit(Request)
+
+    /** Hands the disk the next batch of requests, in the order chosen by the
+     * scheduler, unless it is still working on the last one.
+     * The caller must hold the lock.
+     */
+    private void startBatch() {
+        if (!inFlight.isEmpty()) {
+            return;
+        }
+        Request r;
+        while (inFlight.size() < MAX_BATCH
+                && (r = scheduler.next(head)) != null) {
+            inFlight.add(r);
+            head = r.blockNumber;
+        }
+        int n = inFlight.size();
+        if (n == 0) {
+            return;
+        }
+        int blockNumbers[] = new int[n];
+        byte buffers[][] = new byte[n][];
+        boolean writing[] = new boolean[n];
+        int i = 0;
+        for (Request q : inFlight) {
+            blockNumbers[i] = q.blockNumber;
+            buffers[i] = q.block;
+            writing[i] = q.isWriting;
+            i++;
+        }
+        disk.beginBatch(blockNumbers, buffers, writing);
+    } // startBatch()
+
+    /** Waits until the queue is empty and the disk is idle. */
+    private void waitUntilIdle() {
+        lock.lock();
+        try {
+            while (!inFlight.isEmpty() || scheduler.size() > 0) {
+                try {
+                    batchDone.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    } // waitUntilIdle()
+
+    /** Counts a completed request and, if timing is on, records its
+     * latency.
+     * @param nanos the time from queueing to completion, in nanoseconds.
+     */
+    private void record(long nanos) {
+        lock.lock();
+        try {
+            if (latencies != null) {
+                if (completed == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, completed * 2);
+                }
+                latencies[completed] = nanos;
+            }
+            completed++;
+        } finally {
+            lock.unlock();
+        }
+    } // record(long)
+
+    /** Makes sure a request is legal before it is queued, so that the disk
+     * never sees a bad one.
+     * @param blockNumber the block to read or write.
+     * @param buffer the caller's data area.
+     * @param offset where in buffer the block starts.
+     */
+    private void checkRequest(int blockNumber, byte buffer[], int offset) {
+        if (
+                blockNumber < 0
+                || blockNumber >= disk.DISK_SIZE
+                || buffer == null
+                || offset < 0
+                || offset > buffer.length - Disk.BLOCK_SIZE)
+        {
+            throw new Disk.DiskException("Illegal disk request: "
+                        + " block number " + blockNumber
+                        + " buffer " + buffer + " offset " + offset);
+        }
+    } // checkRequest(int, byte[], int)
+} // DiskQueue
@@ -0,0 +1,218 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+
+/** A policy for choosing which queued disk request to start next.
+ * <p>
+ * The Disk charges 10 + |target - current| / 5 milliseconds per operation,
+ * so the order in which requests are served decides how far the head
+ * travels and how long requests wait.  A DiskQueue hands every new request
+ * to its scheduler and, whenever the disk goes idle, asks it for the next
+ * one given the current head position.  The policies are:
+ * <dl>
+ * <dt>FCFS<dd>first come, first served.
+ * <dt>SSTF<dd>shortest seek time first: the request nearest the head.
+ * <dt>SCAN<dd>the elevator: sweep in one direction serving requests on the
+ *     way, continue to the edge of the disk, then sweep back.
+ * <dt>C-SCAN<dd>sweep upward only; at the top edge, return to block 0 and
+ *     start again.
+ * <dt>LOOK<dd>like SCAN, but reverse at the last request rather than at the
+ *     edge.
+ * </dl>
+ * SCAN and C-SCAN move the head to the edge with a seek request, so the time
+ * the sweep takes is charged by the Disk like any other head movement.
+ *
+ * @see DiskQueue
+ */
+public abstract class DiskScheduler {
+    /** The names of the available policies. */
+    public static final String POLICIES[] =
+        { "FCFS", "SSTF", "SCAN", "C-SCAN", "LOOK" };
+
+    /** Creates a scheduler.
+     * @param policy the name of the policy, one of POLICIES (ignoring case).
+     * @param diskSize the number of blocks on the disk.
+     * @return a new, empty scheduler.
+     * @throws IllegalArgumentException if there is no such policy.
+     */
+    public static DiskScheduler create(String policy, int diskSize) {
+        String name = policy.toUpperCase();
+        if (name.equals("FCFS")) {
+            return new Fcfs();
+        } else if (name.equals("SSTF")) {
+            return new Sstf();
+        } else if (name.equals("SCAN")) {
+            return new Scan(diskSize, true, false);
+        } else if (name.equals("C-SCAN")) {
+            return new Scan(diskSize, true, true);
+        } else if (name.equals("LOOK")) {
+            return new Scan(diskSize, false, false);
+        }
+        throw new IllegalArgumentException("No disk scheduler " + policy);
+    } // create(String, int)
+
+    /** Adds a request to the set waiting to be served.
+     * @param r the request.
+     */
+    abstract void add(DiskQueue.Request r);
+
+    /** Removes and returns the request to start next.
+     * @param head the block the head is at.
+     * @return the request, possibly a seek made up by the scheduler, or null
+     * if nothing is waiting.
+     */
+    abstract DiskQueue.Request next(int head);
+
+    /** Returns the number of requests waiting.
+     * @return the count.
+     */
+    abstract int size();
+
+    /** First come, first served. */
+    private static class Fcfs extends DiskScheduler {
+        /** The waiting requests, in arrival order. */
+        private final LinkedList<DiskQueue.Request> queue
+            = new LinkedList<DiskQueue.Request>();
+
+        void add(DiskQueue.Request r) {
+            queue.add(r);
+        }
+
+        DiskQueue.Request next(int head) {
+            return queue.poll();
+        }
+
+        int size() {
+            return queue.size();
+        }
+    } // class Fcfs
+
+    /** The base for policies that look at the requests in block order.
+     * Requests for the same block are served in arrival order.
+     */
+    private static abstract class Sorted extends DiskScheduler {
+        /** The waiting requests, by block number. */
+        private final TreeMap<Integer,LinkedList<DiskQueue.Request>> blocks
+            = new TreeMap<Integer,LinkedList<DiskQueue.Request>>();
+
+        /** The number of waiting requests. */
+        private int count;
+
+        void add(DiskQueue.Request r) {
+            LinkedList<DiskQueue.Request> list = blocks.get(r.blockNumber);
+            if (list == null) {
+                list = new LinkedList<DiskQueue.Request>();
+                blocks.put(r.blockNumber, list);
+            }
+            list.add(r);
+            count++;
+        } // add(DiskQueue.Request)
+
+        int size() {
+            return count;
+        }
+
+        /** Finds the nearest waiting block at or above a position.
+         * @param block the position.
+         * @return the block number, or null if there is none.
+         */
+        Integer above(int block) {
+            return blocks.ceilingKey(block);
+        }
+
+        /** Finds the nearest waiting block at or below a position.
+         * @param block the position.
+         * @return the block number, or null if there is none.
+         */
+        Integer below(int block) {
+            return blocks.floorKey(block);
+        }
+
+        /** Removes the oldest request for a block.
+         * @param block a block with at least one waiting request.
+         * @return the request.
+         */
+        DiskQueue.Request take(int block) {
+            LinkedList<DiskQueue.Request> list = blocks.get(block);
+            DiskQueue.Request r = list.poll();
+            if (list.isEmpty()) {
+                blocks.remove(block);
+            }
+            count--;
+            return r;
+        } // take(int)
+    } // class Sorted
+
+    /** Shortest seek time first. */
+    private static class Sstf extends Sorted {
+        DiskQueue.Request next(int head) {
+            if (size() == 0) {
+                return null;
+            }
+            Integer up = above(head);
+            Integer down = below(head);
+            if (up == null) {
+                return take(down);
+            }
+            if (down == null || up - head <= head - down) {
+                return take(up);
+            }
+            return take(down);
+        } // next(int)
+    } // class Sstf
+
+    /** SCAN, C-SCAN and LOOK, which differ only in what happens at the end
+     * of a sweep.
+     */
+    private static class Scan extends Sorted {
+        /** The number of blocks on the disk. */
+        private final int diskSize;
+
+        /** True if the head goes all the way to the edge before turning. */
+        private final boolean toEdge;
+
+        /** True if the head only serves requests while moving up. */
+        private final boolean circular;
+
+        /** True while the head is moving toward higher block numbers. */
+        private boolean up = true;
+
+        /** Creates a new Scan.
+         * @param diskSize the number of blocks on the disk.
+         * @param toEdge true to sweep to the edge (SCAN, C-SCAN), false to
+         * turn at the last request (LOOK).
+         * @param circular true to serve requests in one direction only.
+         */
+        Scan(int diskSize, boolean toEdge, boolean circular) {
+            this.diskSize = diskSize;
+            this.toEdge = toEdge;
+            this.circular = circular;
+        } // Scan.Scan(int, boolean, boolean)
+
+        DiskQueue.Request next(int head) {
+            if (size() == 0) {
+                return null;
+            }
+            for (;;) {
+                Integer block = up ? above(head) : below(head);
+                if (block != null) {
+                    return take(block);
+                }
+                // Nothing more in this direction.
+                int edge = up ? diskSize - 1 : 0;
+                if (toEdge && head != edge) {
+                    return DiskQueue.Request.seek(edge);
+                }
+                if (circular) {
+                    // Back to the start, then sweep up again.
+                    return DiskQueue.Request.seek(0);
+                }
+                up = !up;
+            }
+        } // Scan.next(int)
+    } // class Scan
+} // DiskScheduler
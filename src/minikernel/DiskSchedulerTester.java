@@ -0,0 +1,110 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import static minikernel.Checks.*;
+
+/** Checks the disk scheduling policies.
+ * <p>
+ * Each policy in DiskScheduler.POLICIES is given the same queue of
+ * requests, with the head at the same place, and asked for them one by one
+ * without a disk behind it: the head is simply moved to each block the
+ * policy picks.  The order it picks them in, including any seeks to the
+ * edge of the disk, and the distance the head travels are compared with
+ * the textbook answers for that queue.  Requests for the same block, an
+ * empty queue, and policy names are checked too.
+ * <p>
+ * Usage: java minikernel.DiskSchedulerTester
+ *
+ * @see DiskScheduler
+ */
+public class DiskSchedulerTester {
+    /** The number of blocks on the simulated disk. */
+    private static final int DISK_SIZE = 200;
+
+    /** Where the head starts. */
+    private static final int HEAD = 53;
+
+    /** The blocks requested, in arrival order. */
+    private static final int BLOCKS[] = { 98, 183, 37, 122, 14, 124, 65, 67 };
+
+    /** Main program.
+     * @param args ignored.
+     */
+    public static void main(String args[]) {
+        policy("FCFS", "98 183 37 122 14 124 65 67", 640);
+        policy("SSTF", "65 67 37 14 98 122 124 183", 236);
+        policy("SCAN", "65 67 98 122 124 183 seek199 37 14", 331);
+        policy("C-SCAN", "65 67 98 122 124 183 seek199 seek0 14 37", 382);
+        policy("LOOK", "65 67 98 122 124 183 37 14", 299);
+        sameBlock();
+        names();
+        finish();
+    } // main(String[])
+
+    /** Runs the queue in BLOCKS through one policy.
+     * @param name the policy.
+     * @param expected the blocks it should serve, in order, with "seek"
+     * before the block of a seek it makes up.
+     * @param distance how far the head should travel.
+     */
+    private static void policy(String name, String expected, int distance) {
+        DiskScheduler s = DiskScheduler.create(name, DISK_SIZE);
+        for (int block : BLOCKS) {
+            s.add(read(block));
+        }
+        check(name + " size", s.size() == BLOCKS.length);
+        StringBuilder sb = new StringBuilder();
+        int head = HEAD;
+        int moved = 0;
+        for (DiskQueue.Request r; (r = s.next(head)) != null; ) {
+            sb.append(sb.length() == 0 ? "" : " ")
+                .append(r.isSeek ? "seek" : "").append(r.blockNumber);
+            moved += Math.abs(r.blockNumber - head);
+            head = r.blockNumber;
+        }
+        check(name + " order", sb.toString().equals(expected));
+        check(name + " head movement", moved == distance);
+        check(name + " empty", s.size() == 0 && s.next(head) == null);
+    } // policy(String, String, int)
+
+    /** Checks that requests for one block are served in arrival order. */
+    private static void sameBlock() {
+        for (String name : DiskScheduler.POLICIES) {
+            DiskScheduler s = DiskScheduler.create(name, DISK_SIZE);
+            DiskQueue.Request first = read(HEAD);
+            DiskQueue.Request second = read(HEAD);
+            DiskQueue.Request third = read(HEAD);
+            s.add(first);
+            s.add(second);
+            s.add(third);
+            check(name + " serves one block in arrival order",
+                    s.next(HEAD) == first && s.next(HEAD) == second
+                        && s.next(HEAD) == third);
+        }
+    } // sameBlock()
+
+    /** Checks the policy names. */
+    private static void names() {
+        check("names ignore case",
+                DiskScheduler.create("c-scan", DISK_SIZE).next(0) == null);
+        boolean threw = false;
+        try {
+            DiskScheduler.create("ELEVATOR", DISK_SIZE);
+        } catch (IllegalArgumentException e) {
+            threw = true;
+        }
+        check("unknown name rejected", threw);
+    } // names()
+
+    /** Creates a read request.
+     * @param block the block to read.
+     * @return the new request.
+     */
+    private static DiskQueue.Request read(int block) {
+        return new DiskQueue.Request(block, false,
+                new byte[Disk.BLOCK_SIZE], 0);
+    } // read(int)
+} // DiskSchedulerTester
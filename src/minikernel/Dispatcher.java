@@ -0,0 +1,364 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/** A set of simulated CPUs shared by the processes the Kernel runs.
+ * <p>
+ * Each process still runs in a Java thread of its own, but it may only run
+ * its own code while it holds one of the CPUs.  A new process waits in the
+ * ready queue, kept by a CpuScheduler, until it is given a CPU.  Every
+ * system call is a preemption point: if the caller has used up its time
+ * slice, or the scheduler says a waiting process should run instead, the
+ * caller goes back to the ready queue and waits for a CPU again before the
+ * call goes ahead.  A process gives up its CPU while it waits for console
+ * input or for another process to finish, and when it ends.
+ * <p>
+ * Since preemption happens only at the start of a system call, a process
+ * never waits for a CPU while it holds a lock of the Kernel.  A process that
+ * runs for a long time without making a system call keeps its CPU, as it
+ * would on a machine without a timer interrupt, and time it spends waiting
+ * for the disk inside a system call counts as CPU time.
+ * <p>
+ * The Dispatcher records how long each process waited for a CPU, how much
+ * CPU time it used, and how long it took from exec to exit, and how busy
+ * the CPUs were, so that policies can be compared under the same load.
+ *
+ * @see CpuScheduler
+ * @see Kernel#SYSCALL_NICE
+ */
+public class Dispatcher {
+    /** The policy for choosing the next process to run. */
+    private final CpuScheduler scheduler;
+
+    /** The number of CPUs. */
+    private final int cpus;
+
+    /** The number of CPUs not running a process. */
+    private int idle;
+
+    /** Guards everything here and in the tasks. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** The total CPU time used, in nanoseconds. */
+    private long busyNanos;
+
+    /** The number of times a process was given a CPU. */
+    private int dispatchCount;
+
+    /** The number of times a process was made to give up its CPU. */
+    private int preemptCount;
+
+    /** The processes that have finished, in the order they did. */
+    private final List<Task> finished = new ArrayList<Task>();
+
+    /** Creates a new Dispatcher.
+     * @param scheduler the policy for ordering the ready queue.
+     * @param cpus the number of CPUs.
+     */
+    public Dispatcher(CpuScheduler scheduler, int cpus) {
+        if (cpus < 1) {
+            throw new IllegalArgumentException("No CPUs");
+        }
+        this.scheduler = scheduler;
+        this.cpus = cpus;
+        this.idle = cpus;
+    } // Dispatcher(CpuScheduler, int)
+
+    /** Creates the scheduling state of a new process.
+     * @param pid the process id.
+     * @param name the name of the program.
+     * @param nice its nice value, inherited from the process that started it.
+     * @return the new task, not yet ready to run.
+     */
+    public Task newTask(int pid, String name, int nice) {
+        return new Task(lock, pid, name, nice);
+    } // newTask(int, String, int)
+
+    /** Puts a new process in the ready queue and waits for it to be given
+     * a CPU.  Called by the process when it starts.
+     * @param t the process.
+     */
+    public void admit(Task t) {
+        lock.lock();
+        try {
+            ready(t, System.nanoTime());
+            awaitCpu(t);
+        } finally {
+            lock.unlock();
+        }
+    } // admit(Task)
+
+    /** Gives another process the caller's CPU if the caller should be
+     * preempted, and waits to get a CPU back.  Called at the start of every
+     * system call.
+     * @param t the calling process, which holds a CPU.
+     */
+    public void preemptionPoint(Task t) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long ran = now - t.sliceStart;
+            if (scheduler.size() == 0) {
+                if (ran >= t.slice) {
+                    // Nobody is waiting, so just start a new slice.
+                    charge(t, now, true);
+                    t.slice = scheduler.quantum(t);
+                }
+                return;
+            }
+            if (!scheduler.preempt(t, ran)) {
+                return;
+            }
+            preemptCount++;
+            release(t, now, ran >= t.slice);
+            ready(t, now);
+            awaitCpu(t);
+        } finally {
+            lock.unlock();
+        }
+    } // preemptionPoint(Task)
+
+    /** Gives up the caller's CPU before it waits for something other than
+     * a CPU.
+     * @param t the calling process, which holds a CPU.
+     */
+    public void block(Task t) {
+        lock.lock();
+        try {
+            release(t, System.nanoTime(), false);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    } // block(Task)
+
+    /** Puts the caller back in the ready queue after block(), and waits for
+     * it to be given a CPU.
+     * @param t the calling process.
+     */
+    public void unblock(Task t) {
+        lock.lock();
+        try {
+            ready(t, System.nanoTime());
+            awaitCpu(t);
+        } finally {
+            lock.unlock();
+        }
+    } // unblock(Task)
+
+    /** Gives up the caller's CPU for good.
+     * @param t the calling process, which holds a CPU.
+     */
+    public void exit(Task t) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            release(t, now, false);
+            t.exitedAt = now;
+            finished.add(t);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    } // exit(Task)
+
+    /** Changes the nice value of a process.
+     * @param t the process, which holds a CPU.
+     * @param nice the new value.
+     */
+    public void setNice(Task t, int nice) {
+        lock.lock();
+        try {
+            t.nice = nice;
+        } finally {
+            lock.unlock();
+        }
+    } // setNice(Task, int)
+
+    /** Adds a process to the ready queue and hands out any idle CPUs.
+     * @param t the process.
+     * @param now the time.
+     */
+    private void ready(Task t, long now) {
+        t.readySince = now;
+        scheduler.add(t);
+        dispatch();
+    } // ready(Task, long)
+
+    /** Gives each idle CPU to the next process in the ready queue. */
+    private void dispatch() {
+        long now = System.nanoTime();
+        while (idle > 0 && scheduler.size() > 0) {
+            Task t = scheduler.next();
+            idle--;
+            dispatchCount++;
+            t.waitNanos += now - t.readySince;
+            t.sliceStart = now;
+            t.slice = scheduler.quantum(t);
+            t.running = true;
+            t.turn.signal();
+        }
+    } // dispatch()
+
+    /** Waits until a process is given a CPU.
+     * @param t the process.
+     */
+    private void awaitCpu(Task t) {
+        while (!t.running) {
+            t.turn.awaitUninterruptibly();
+        }
+    } // awaitCpu(Task)
+
+    /** Takes a CPU away from a process.
+     * @param t the process.
+     * @param now the time.
+     * @param expired true if it used its whole time slice.
+     */
+    private void release(Task t, long now, boolean expired) {
+        charge(t, now, expired);
+        t.running = false;
+        idle++;
+    } // release(Task, long, boolean)
+
+    /** Charges a process for the CPU time it has used since its slice
+     * started, and starts the slice again.
+     * @param t the process.
+     * @param now the time.
+     * @param expired true if it used its whole time slice.
+     */
+    private void charge(Task t, long now, boolean expired) {
+        long ran = now - t.sliceStart;
+        t.cpuNanos += ran;
+        busyNanos += ran;
+        t.sliceStart = now;
+        scheduler.ran(t, ran, expired);
+    } // charge(Task, long, boolean)
+
+    /** Describes how the processes that have finished were scheduled.
+     * @return one line per process, and a summary, each starting with
+     * "Kernel: ".
+     */
+    public String report() {
+        lock.lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            double waitSum = 0;
+            double turnaroundSum = 0;
+            sb.append(String.format(
+                    "Kernel: %6s %10s %10s %10s %4s  %s\n", "pid",
+                    "wait ms", "cpu ms", "turn ms", "nice", "program"));
+            for (Task t : finished) {
+                double turnaround = (t.exitedAt - t.createdAt) / 1e6;
+                sb.append(String.format(
+                        "Kernel: %6d %10.2f %10.2f %10.2f %4d  %s\n", t.pid,
+                        t.waitNanos / 1e6, t.cpuNanos / 1e6, turnaround,
+                        t.nice, t.name));
+                first = Math.min(first, t.createdAt);
+                last = Math.max(last, t.exitedAt);
+                waitSum += t.waitNanos / 1e6;
+                turnaroundSum += turnaround;
+            }
+            int n = finished.size();
+            double utilization
+                = n == 0 ? 0 : utilization(busyNanos, cpus, last - first);
+            sb.append(String.format("Kernel: Scheduler %s on %d CPU%s: "
+                    + "%.1f%% utilization, %d dispatches, %d preemptions\n",
+                    scheduler.getName(), cpus, cpus == 1 ? "" : "s",
+                    utilization, dispatchCount, preemptCount));
+            if (n > 0) {
+                sb.append(String.format("Kernel: %d processes: mean wait "
+                        + "%.2f ms, mean turnaround %.2f ms\n",
+                        n, waitSum / n, turnaroundSum / n));
+            }
+            return sb.toString();
+        } finally {
+            lock.unlock();
+        }
+    } // report()
+
+    /** Works out how busy a number of CPUs were.
+     * @param busyNanos the total CPU time used.
+     * @param cpus the number of CPUs.
+     * @param elapsedNanos the time over which it was used.
+     * @return the percentage of the CPUs' time that was used, or 0 if no
+     * time has elapsed.
+     */
+    static double utilization(long busyNanos, int cpus, long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return 100.0 * busyNanos / ((double) cpus * elapsedNanos);
+    } // utilization(long, int, long)
+
+    /** The scheduling state of one process.  Guarded by the lock of the
+     * Dispatcher that made it.
+     */
+    public static class Task {
+        /** The process id. */
+        final int pid;
+
+        /** The name of the program. */
+        final String name;
+
+        /** The nice value, from Kernel.MIN_NICE (most favored) to
+         * Kernel.MAX_NICE.
+         */
+        int nice;
+
+        /** Signalled when the process is given a CPU. */
+        final Condition turn;
+
+        /** True while the process holds a CPU. */
+        boolean running;
+
+        /** When the process was created, from System.nanoTime(). */
+        final long createdAt = System.nanoTime();
+
+        /** When it was last put in the ready queue. */
+        long readySince;
+
+        /** When its current time slice started, or it was last charged. */
+        long sliceStart;
+
+        /** The length of its current time slice, in nanoseconds. */
+        long slice;
+
+        /** When it ended. */
+        long exitedAt;
+
+        /** The total time it has spent in the ready queue. */
+        long waitNanos;
+
+        /** The total CPU time it has used. */
+        long cpuNanos;
+
+        /** Its queue in a multilevel feedback queue, 0 being the top. */
+        int level;
+
+        /** The priority boost it has had, for a multilevel feedback queue. */
+        int boost;
+
+        /** Its weighted CPU time, for a fair-share scheduler. */
+        long vruntime;
+
+        /** Creates a new Task.
+         * @param lock the lock of the Dispatcher.
+         * @param pid the process id.
+         * @param name the name of the program.
+         * @param nice the nice value.
+         */
+        Task(Lock lock, int pid, String name, int nice) {
+            this.turn = lock.newCondition();
+            this.pid = pid;
+            this.name = name;
+            this.nice = nice;
+        } // Task.Task(Lock, int, String, int)
+    } // class Task
+} // Dispatcher
@@ -7,30 +7,63 @@ package minikernel;
 
 /* $Id: FastDisk.java,v 1.15 2006/11/22 21:47:00 solomon Exp $ */
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import static java.lang.System.*;
+
 /** A new and improved Disk.
- * <b>You may not change this class.</b>
  * <p>
  * This disk is so much faster than the previous model that read and write
  * operations appear to finish in no time.   Because disk is so fast, beginRead
  * and beginWrite wait for the operation to finish rather than causing a CPU
  * interrupt when they complete.
  * <p>
+ * A FastDisk remembers which blocks have been written since its contents were
+ * last saved, so flush() and checkpoint() write only those blocks back to the
+ * DISK file rather than the whole disk.
+ * <p>
+ * Besides the single-block read and write, a FastDisk can transfer a run of
+ * consecutive blocks, or an arbitrary list of blocks, in one operation.
+ * readCount and writeCount count operations; bytesRead and bytesWritten count
+ * the data they moved.
+ * <p>
  * @see Disk
  * @see Kernel
  */
-public class FastDisk extends Disk {
+public class FastDisk extends Disk implements BlockDevice {
+    /** Bit i is set if block i has been written since the last save. */
+    protected final BitSet dirtyBlocks = new BitSet();
+
+    /** The number of bytes transferred by read operations. */
+    protected long bytesRead;
+
+    /** The number of bytes transferred by write operations. */
+    protected long bytesWritten;
+
     /** Creates a new FastDisk.
      * @param size the total size of this disk, in blocks.
      */
     public FastDisk(int size) {
-        super(size);
+        this(size, true);
+    } // FastDisk
+
+    /** Creates a new FastDisk, optionally without reading the DISK file.
+     * @param size the total size of this disk, in blocks.
+     * @param loadImage true to read the DISK file into memory.
+     * @see Disk#Disk(int, boolean)
+     */
+    protected FastDisk(int size, boolean loadImage) {
+        super(size, loadImage);
         if (size < 0 || size >= (1<<15)) {
             throw new DiskException(
                 String.format(
                     "Cannot make a FastDisk with %d blocks.  Max size is %d.",
                     size, 1<<15));
         }
-    } // FastDisk
+    } // FastDisk(int, boolean)
 
     /** Performs a read operation.
      * When this method returns, the operation is complete.
@@ -39,11 +72,7 @@ public class FastDisk extends Disk {
      * @see Disk#beginRead(int, byte[])
      */
     public void read(int blockNumber, byte buffer[]) {
-        System.arraycopy(
-            data, blockNumber * BLOCK_SIZE,
-            buffer, 0,
-            BLOCK_SIZE);
-        readCount++;
+        readBlocks(blockNumber, 1, buffer, 0);
     } // read(int, byte[])
 
     /** Performs a write operation.
@@ -53,28 +82,299 @@ public class FastDisk extends Disk {
      * @see Disk#beginWrite(int, byte[])
      */
     public void write(int blockNumber, byte buffer[]) {
-        System.arraycopy(
-            buffer, 0,
-            data, blockNumber * BLOCK_SIZE,
-            BLOCK_SIZE);
-        writeCount++;
+        writeBlocks(blockNumber, 1, buffer, 0);
     } // write(int, byte[])
-    
-    //************Code added by Brett Duncan*********************//
-    @Override
-    public void format() {
-        data = new byte[DISK_SIZE * BLOCK_SIZE];
-        for (int i = 1; i < DISK_SIZE; i++) {
-            data[i] = '0';
+
+    /** Reads a run of consecutive blocks in one operation.
+     * @param start the first block to read.
+     * @param count the number of blocks to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the first block.
+     */
+    public synchronized void readBlocks(int start, int count,
+            byte buffer[], int offset)
+    {
+        checkRequest("read", start, count, buffer, offset);
+        readRun(start, count, buffer, offset);
+        readCount++;
+        bytesRead += (long) count * BLOCK_SIZE;
+    } // readBlocks(int, int, byte[], int)
+
+    /** Reads a list of blocks in one operation.
+     * Block blocks[i] is stored in buffer at offset + i * BLOCK_SIZE.
+     * Blocks that are consecutive on the disk are copied together.
+     * @param blocks the block numbers to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the first block.
+     */
+    public synchronized void readBlocks(int blocks[], byte buffer[], int offset) {
+        checkRequest("read", blocks, buffer, offset);
+        int i = 0;
+        while (i < blocks.length) {
+            int n = runLength(blocks, i);
+            readRun(blocks[i], n, buffer, offset + i * BLOCK_SIZE);
+            i += n;
         }
+        readCount++;
+        bytesRead += (long) blocks.length * BLOCK_SIZE;
+    } // readBlocks(int[], byte[], int)
+
+    /** Reads a run of consecutive blocks.  Since a FastDisk completes every
+     * operation at once, the read is done before this method returns.
+     * @param start the first block to read.
+     * @param count the number of blocks to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the first block.
+     * @return a future that has already completed.
+     */
+    public CompletableFuture<Void> readBlocksAsync(int start, int count,
+            byte buffer[], int offset)
+    {
+        readBlocks(start, count, buffer, offset);
+        return CompletableFuture.completedFuture(null);
+    } // readBlocksAsync(int, int, byte[], int)
+
+    /** Writes a run of consecutive blocks in one operation.
+     * @param start the first block to write.
+     * @param count the number of blocks to write.
+     * @param buffer a data area holding the data to be written.
+     * @param offset where in buffer the first block starts.
+     */
+    public synchronized void writeBlocks(int start, int count,
+            byte buffer[], int offset)
+    {
+        checkRequest("write", start, count, buffer, offset);
+        writeRun(start, count, buffer, offset);
+        dirtyBlocks.set(start, start + count);
+        writeCount++;
+        bytesWritten += (long) count * BLOCK_SIZE;
+    } // writeBlocks(int, int, byte[], int)
+
+    /** Writes a list of blocks in one operation.
+     * Block blocks[i] is taken from buffer at offset + i * BLOCK_SIZE.
+     * Blocks that are consecutive on the disk are copied together.
+     * @param blocks the block numbers to write.
+     * @param buffer a data area holding the data to be written.
+     * @param offset where in buffer the first block starts.
+     */
+    public synchronized void writeBlocks(int blocks[], byte buffer[], int offset) {
+        checkRequest("write", blocks, buffer, offset);
+        int i = 0;
+        while (i < blocks.length) {
+            int n = runLength(blocks, i);
+            writeRun(blocks[i], n, buffer, offset + i * BLOCK_SIZE);
+            dirtyBlocks.set(blocks[i], blocks[i] + n);
+            i += n;
+        }
+        writeCount++;
+        bytesWritten += (long) blocks.length * BLOCK_SIZE;
+    } // writeBlocks(int[], byte[], int)
+
+    /** Copies consecutive blocks out of the disk.
+     * The request has already been checked.
+     * @param start the first block to read.
+     * @param count the number of blocks to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the first block.
+     */
+    protected void readRun(int start, int count, byte buffer[], int offset) {
+        System.arraycopy(
+            data, start * BLOCK_SIZE,
+            buffer, offset,
+            count * BLOCK_SIZE);
+    } // readRun(int, int, byte[], int)
+
+    /** Copies consecutive blocks into the disk.
+     * The request has already been checked.
+     * @param start the first block to write.
+     * @param count the number of blocks to write.
+     * @param buffer a data area holding the data to be written.
+     * @param offset where in buffer the first block starts.
+     */
+    protected void writeRun(int start, int count, byte buffer[], int offset) {
+        System.arraycopy(
+            buffer, offset,
+            data, start * BLOCK_SIZE,
+            count * BLOCK_SIZE);
+    } // writeRun(int, int, byte[], int)
+
+    /** Makes sure a request for a run of blocks is legal.
+     * @param kind "read" or "write", for the error message.
+     * @param start the first block.
+     * @param count the number of blocks.
+     * @param buffer the data area.
+     * @param offset where in buffer the data starts.
+     */
+    private void checkRequest(String kind, int start, int count,
+            byte buffer[], int offset)
+    {
+        if (
+                start < 0
+                || count < 0
+                || start > DISK_SIZE - count
+                || buffer == null
+                || offset < 0
+                || buffer.length - offset < (long) count * BLOCK_SIZE)
+        {
+            throw new DiskException("Illegal disk " + kind + " request: "
+                        + " blocks " + start + " to " + (start + count - 1)
+                        + " buffer " + buffer + " offset " + offset);
+        }
+    } // checkRequest(String, int, int, byte[], int)
+
+    /** Makes sure a request for a list of blocks is legal.
+     * @param kind "read" or "write", for the error message.
+     * @param blocks the block numbers.
+     * @param buffer the data area.
+     * @param offset where in buffer the data starts.
+     */
+    private void checkRequest(String kind, int blocks[],
+            byte buffer[], int offset)
+    {
+        if (
+                blocks == null
+                || buffer == null
+                || offset < 0
+                || buffer.length - offset < (long) blocks.length * BLOCK_SIZE)
+        {
+            throw new DiskException("Illegal disk " + kind + " request: "
+                        + " block list " + blocks + " buffer " + buffer
+                        + " offset " + offset);
+        }
+        for (int block : blocks) {
+            if (block < 0 || block >= DISK_SIZE) {
+                throw new DiskException("Illegal disk " + kind + " request: "
+                            + " block number " + block);
+            }
+        }
+    } // checkRequest(String, int[], byte[], int)
+
+    /** Counts the consecutive block numbers in a list.
+     * @param blocks the block numbers.
+     * @param i where to start counting.
+     * @return the largest n such that blocks[i..i+n-1] are consecutive.
+     */
+    private static int runLength(int blocks[], int i) {
+        int n = 1;
+        while (i + n < blocks.length && blocks[i + n] == blocks[i] + n) {
+            n++;
+        }
+        return n;
+    } // runLength(int[], int)
+
+    /** Returns the number of read operations performed so far.
+     * A multi-block read counts as one operation.
+     * @return the read count.
+     */
+    public int getReadCount() {
+        return readCount;
+    }
+
+    /** Returns the number of write operations performed so far.
+     * A multi-block write counts as one operation.
+     * @return the write count.
+     */
+    public int getWriteCount() {
+        return writeCount;
+    }
+
+    /** Returns the number of bytes read so far.
+     * @return the byte count.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** Returns the number of bytes written so far.
+     * @return the byte count.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
     }
+
+    /** Formats the disk.
+     * Every block is considered modified, so the next save rewrites them all.
+     */
+    public synchronized void format() {
+        super.format();
+        // The Disk constructor formats a new disk before dirtyBlocks is
+        // initialized.  There is no DISK file yet then, and checkpoint()
+        // saves everything when there is none.
+        if (dirtyBlocks != null) {
+            dirtyBlocks.set(0, DISK_SIZE);
+        }
+    } // format()
+
+    /** Writes the blocks modified since the last save to the DISK file.
+     * Each run of consecutive dirty blocks is written with a single
+     * positional write; the rest of the file is not touched.  If the DISK file
+     * does not exist yet, the whole disk is saved.
+     * @return the number of blocks written.
+     */
+    public synchronized int checkpoint() {
+        File diskName = new File("DISK");
+        if (diskName.length() != (long) DISK_SIZE * BLOCK_SIZE) {
+            dirtyBlocks.set(0, DISK_SIZE);
+        }
+        int count = dirtyBlocks.cardinality();
+        if (count == 0) {
+            return 0;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(diskName, "rw");
+            try {
+                FileChannel channel = file.getChannel();
+                int end;
+                for (int start = dirtyBlocks.nextSetBit(0);
+                        start >= 0; start = dirtyBlocks.nextSetBit(end))
+                {
+                    end = dirtyBlocks.nextClearBit(start);
+                    ByteBuffer run = ByteBuffer.wrap(data,
+                            start * BLOCK_SIZE, (end - start) * BLOCK_SIZE);
+                    long position = (long) start * BLOCK_SIZE;
+                    while (run.hasRemaining()) {
+                        position += channel.write(run, position);
+                    }
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(1);
+        }
+        dirtyBlocks.clear();
+        return count;
+    } // checkpoint()
+
+    /** Saves the contents of this Disk.
+     * Only the blocks written since the last save are transferred.
+     * Also prints some statistics on disk operations.
+     */
+    public void flush() {
+        out.println("Saving contents to DISK file...");
+        int count = checkpoint();
+        out.printf("%d modified blocks saved\n", count);
+        out.printf(
+            "%d read operations (%d bytes) and %d write operations (%d bytes)"
+                + " performed\n",
+            readCount, bytesRead, writeCount, bytesWritten);
+    } // flush()
     
+    //************Code added by Brett Duncan*********************//
     public int getBlockSize() {
         return BLOCK_SIZE;
     }
     
     //************End code added by Brett Duncan*********************//
 
+    /** Returns the size of this disk.
+     * @return the number of blocks.
+     */
+    public int getSize() {
+        return DISK_SIZE;
+    }
+
     /** Starts a new read operation.
      * @param blockNumber The block number to read from.
      * @param buffer A data area to hold the data read.  This array must be
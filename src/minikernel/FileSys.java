@@ -8,90 +8,1279 @@ package minikernel;
 /* $Id: FileSys.java.src,v 1.4 2007/04/25 14:12:25 solomon Exp $ */
 
 import java.util.*;
+import java.util.concurrent.locks.*;
 import java.io.*;
 import static java.lang.System.*;
 
-/** A file system. */
+/** A file system.
+ * <p>
+ * The disk is laid out as follows:
+ * <pre>
+ *     block 0          the superblock, describing the rest of the layout
+ *     bitmap blocks    the free map, one bit per block (1 = in use)
+ *     inode map blocks the inode map, one bit per inode (1 = in use)
+ *     inode blocks     the inode table, Inode.PER_BLOCK inodes per block
+ *     data blocks      file contents, allocated in extents
+ * </pre>
+ * The inode table has one inode for every BLOCKS_PER_INODE blocks of the
+ * disk.  Inode 0 is never used, so an inode number of 0 can mean "none".
+ * Inode ROOT_INODE is the root directory.  Directories form a tree: each
+ * holds entries "." for itself and ".." for its parent (the root is its own
+ * parent) as well as the names of the files and directories in it.
+ * Pathnames are resolved one component at a time; empty components, as in
+ * "a//b" or "a/", are ignored.  A symbolic link met along the way is
+ * replaced by its target, resolved from the directory holding the link if
+ * it is relative.  At most MAX_SYMLINK_HOPS links are followed for one
+ * pathname, which is how loops are caught.
+ * <p>
+ * A directory is read from the disk in full the first time a name in it is
+ * needed, and kept with a hash index of its entries, so looking up a name
+ * does not depend on the size of the directory.  Up to DIRECTORY_CACHE_SIZE
+ * directories are kept; changes are written through to the disk at once, so
+ * the least recently used can be dropped at any time.  In front of them, a
+ * DentryCache remembers the outcome of recent lookups, including names that
+ * were not found, so resolving a pathname that was resolved recently does
+ * not need its directories at all.  The targets of recently followed links
+ * are kept too, so even a short link, whose target lives in its inode,
+ * costs nothing to follow a second time.
+ * <p>
+ * Mounting reads only the superblock and the two bitmaps.  The superblock
+ * records whether the file system was unmounted cleanly.  If it was not,
+ * the bitmaps on disk may be stale, so they are rebuilt by scanning the
+ * inode table with one thread per processor.
+ * <p>
+ * Files that are open share one in-memory inode, kept in a table of open
+ * inodes until the last of them is closed.  A file deleted while it is open
+ * keeps its inode and blocks until then.
+ * <p>
+ * Many processes may use the file system at once.  There is no lock on
+ * the file system as a whole: each inode has a read lock and a write lock,
+ * from InodeLocks, and a caller that reads or changes a file or directory
+ * must hold the matching lock on its inode for the duration.  Blocks and
+ * inodes are allocated by claiming bits in AtomicBitmaps, which needs no
+ * lock at all, and a lookup found in the DentryCache takes none either.
+ * The small tables of directories, symlink targets and open inodes each
+ * have a monitor held only while the table itself is consulted.
+ *
+ * @see Inode
+ * @see Directory
+ * @see BufferCache
+ */
 
 public class FileSys {
     /** The disk holding this file system. */
-    private FastDisk disk;
-    
-    //************Code added by Brett Duncan*********************//
-    private String currDir;
-    private String fileTable[];
-    
-    //************End code added by Brett Duncan*********************//
-    
+    private BlockDevice disk;
+
+    /** The number that identifies a disk formatted with this file system. */
+    public static final int MAGIC = 0x4a4f5346;
+
+    /** The version of the layout described above. */
+    public static final int VERSION = 4;
+
+    /** Superblock state of a file system that was unmounted cleanly. */
+    private static final int STATE_CLEAN = 1;
+
+    /** Superblock state of a file system that is (or was, before a crash)
+     * mounted.
+     */
+    private static final int STATE_MOUNTED = 2;
+
+    /** The number of disk blocks for each inode in the inode table. */
+    public static final int BLOCKS_PER_INODE = 2;
+
+    /** The inode of the root directory. */
+    public static final int ROOT_INODE = 1;
+
+    /** The longest file name allowed. */
+    public static final int NAME_SIZE = Directory.NAME_SIZE;
+
+    /** The number of free map bits stored in each block. */
+    private static final int BITS_PER_BLOCK = Disk.BLOCK_SIZE * 8;
+
+    /** The buffer cache in front of the disk.  All block I/O done by the
+     * file system should go through it.
+     */
+    private BufferCache cache;
+
+    /** The free map: bit i is set if block i is in use.  Loaded from the
+     * bitmap blocks when the file system is mounted and only written back by
+     * sync().
+     */
+    private AtomicBitmap freeMap;
+
+    /** The number of blocks the free map manages. */
+    private int blockCount;
+
+    /** Where the next search for a free block starts (next-fit).  Only a
+     * hint, so updates from different processes may overwrite each other.
+     */
+    private volatile int nextFreeBlock;
+
+    /** Bit i is set if inode i is in use.  Loaded from the inode map
+     * blocks when the file system is mounted and only written back by
+     * sync().
+     */
+    private AtomicBitmap inodeMap;
+
+    /** Where the next search for a free inode starts.  Only a hint. */
+    private volatile int nextFreeInode;
+
+    //////////////// Layout of the disk, as recorded in the superblock
+
+    /** The first block of the free map. */
+    private int bitmapStart;
+
+    /** The number of blocks in the free map. */
+    private int bitmapBlocks;
+
+    /** The first block of the inode map. */
+    private int inodeMapStart;
+
+    /** The number of blocks in the inode map. */
+    private int inodeMapBlocks;
+
+    /** The first block of the inode table. */
+    private int inodeStart;
+
+    /** The number of blocks in the inode table. */
+    private int inodeBlocks;
+
+    /** The number of inodes in the inode table. */
+    private int inodeCount;
+
+    /** The first block available for file data. */
+    private int dataStart;
+
+    /** A block of zeros, for clearing newly allocated blocks. */
+    private final byte zeroBlock[] = new byte[Disk.BLOCK_SIZE];
+
+    /** The most directories kept in memory. */
+    public static final int DIRECTORY_CACHE_SIZE = 64;
+
+    /** The directories in memory, by inode number, in LRU order. */
+    private final LinkedHashMap<Integer,Directory> directories
+        = new LinkedHashMap<Integer,Directory>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer,Directory> eldest)
+            {
+                return size() > DIRECTORY_CACHE_SIZE;
+            }
+        };
+
+    /** The locks of the inodes. */
+    private final InodeLocks locks = new InodeLocks();
+
+    /** The results of recent lookups. */
+    private final DentryCache dentries = new DentryCache();
+
+    /** The most symlinks followed while resolving one pathname. */
+    public static final int MAX_SYMLINK_HOPS = 8;
+
+    /** The most symlink targets kept in memory. */
+    public static final int LINK_CACHE_SIZE = 256;
+
+    /** The targets of recently followed symlinks, by inode number, in LRU
+     * order.
+     */
+    private final LinkedHashMap<Integer,String> links
+        = new LinkedHashMap<Integer,String>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer,String> eldest)
+            {
+                return size() > LINK_CACHE_SIZE;
+            }
+        };
+
+    /** The in-memory inodes of open files, by inode number. */
+    private final HashMap<Integer,Inode> openInodes
+        = new HashMap<Integer,Inode>();
+
     /** Initializes a FileSys instance for managing a disk.
+     * If the disk does not hold a file system, it is formatted.
      *
      * @param disk the disk containing the persistent data.
+     * @param cacheSize the number of blocks to keep in the buffer cache.
      */
-    public FileSys(FastDisk disk) {
+    public FileSys(BlockDevice disk, int cacheSize) {
         this.disk = disk;
-        
-        //************Code added by Brett Duncan*********************//
-        currDir = "/";
-        
-        
-        fileTable = new String[100];
-        int startBlock = 1; //The starting block where files begin to be stored.
-        
-        byte freeMap[] = new byte[disk.getBlockSize()];
-        
-        disk.read(0, freeMap);
-        
-        byte tempBuffer[] = new byte[disk.getBlockSize()];
-        for (int i = startBlock; i < fileTable.length; i++) {
-            if (freeMap[i] == '1') {
-                disk.read(i, tempBuffer);
-                
-                String fileName = "";
-                for (int j = 0; j < 32; j++) {
-                    fileName += (char) tempBuffer[j];
-                }
-                fileTable[i] = fileName;
-            }
-        }
-        
-        /*
-        for (int i = startBlock; i < fileTable.length; i++) {
-            byte fileNameBuffer[] = new byte[32];
-            disk.read(i, 32, fileNameBuffer);
-            fileTable[i] = new String(fileNameBuffer);
-        }*/
-        
-//        For debugging purposes, print out the fileTable[] array.
-//        for (int i = startBlock; i < fileTable.length; i++) {
-//            System.out.printf("fileTable[%d] = %s\n", i, fileTable[i]);
+
+        cache = new BufferCache(disk, cacheSize);
+
+        blockCount = disk.getSize();
+
+        byte superBlock[] = new byte[disk.getBlockSize()];
+        cache.read(0, superBlock);
+        if (Inode.getInt(superBlock, 0) != MAGIC
+                || Inode.getInt(superBlock, 4) != VERSION
+                || Inode.getInt(superBlock, 8) != disk.getSize()) {
+            out.println("No file system found on disk; formatting it");
+            format();
+            return;
+        }
+        bitmapStart = Inode.getInt(superBlock, 12);
+        bitmapBlocks = Inode.getInt(superBlock, 16);
+        inodeMapStart = Inode.getInt(superBlock, 20);
+        inodeMapBlocks = Inode.getInt(superBlock, 24);
+        inodeStart = Inode.getInt(superBlock, 28);
+        inodeBlocks = Inode.getInt(superBlock, 32);
+        inodeCount = Inode.getInt(superBlock, 36);
+        int state = Inode.getInt(superBlock, 40);
+        dataStart = inodeStart + inodeBlocks;
+        nextFreeBlock = dataStart;
+        nextFreeInode = ROOT_INODE + 1;
+
+        if (state == STATE_CLEAN) {
+            freeMap = readBitmap(bitmapStart, bitmapBlocks);
+            inodeMap = readBitmap(inodeMapStart, inodeMapBlocks);
+        } else {
+            out.println("File system was not unmounted cleanly; "
+                    + "rebuilding free maps");
+            recover();
+        }
+
+        //Until the file system is unmounted, a crash leaves the bitmaps on
+        //disk out of date.
+        writeState(STATE_MOUNTED);
+
+//        For debugging purposes, print out the root directory.
+//        for (String name : getDirectory(ROOT_INODE).list()) {
+//            System.out.printf("%s = inode %d\n", name,
+//                    getDirectory(ROOT_INODE).lookup(name));
 //        }
-        
-        //************End code added by Brett Duncan*********************//
-        
-    } // FileSys(FastDisk)
-    
+
+    } // FileSys(BlockDevice, int)
+
     //************Code added by Brett Duncan*********************//
-    
-    public FastDisk getDisk() {
+
+    public BlockDevice getDisk() {
         return disk;
     }
-    
+
     public int getBlockSizeOfDisk() {
         return disk.getBlockSize();
     }
-    
-    public void setDisk(Disk disk) {
-        this.disk = (FastDisk) disk;
+
+    public void setDisk(BlockDevice disk) {
+        this.disk = disk;
     }
-    
-    public String[] getFileTable() {
-        return fileTable;
+
+    //************End code added by Brett Duncan*********************//
+
+    public BufferCache getCache() {
+        return cache;
     }
-    
-    public void updateFileTable(int targetBlock, String newFileName) {
-        fileTable[targetBlock] = newFileName;
+
+    public InodeLocks getLocks() {
+        return locks;
     }
-    
-    //************End code added by Brett Duncan*********************//
-    
+
+    public DentryCache getDentryCache() {
+        return dentries;
+    }
+
+    /**
+     * Erases the disk and writes an empty file system to it.
+     */
+    public void format() {
+        disk.format();
+        //Anything cached belongs to the old contents of the disk.
+        cache.invalidate();
+        synchronized (directories) {
+            directories.clear();
+        }
+        dentries.clear();
+        synchronized (links) {
+            links.clear();
+        }
+        synchronized (openInodes) {
+            openInodes.clear();
+        }
+
+        //Work out where everything goes.  The inode table is sized from the
+        //disk, rounded up to a whole number of blocks.
+        int blockSize = disk.getBlockSize();
+        bitmapStart = 1;
+        bitmapBlocks = (blockCount + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK;
+        inodeBlocks = Math.max(1,
+                (blockCount / BLOCKS_PER_INODE + Inode.PER_BLOCK - 1)
+                    / Inode.PER_BLOCK);
+        inodeCount = inodeBlocks * Inode.PER_BLOCK;
+        inodeMapStart = bitmapStart + bitmapBlocks;
+        inodeMapBlocks = (inodeCount + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK;
+        inodeStart = inodeMapStart + inodeMapBlocks;
+        dataStart = inodeStart + inodeBlocks;
+
+        byte superBlock[] = new byte[blockSize];
+        Inode.putInt(superBlock, 0, MAGIC);
+        Inode.putInt(superBlock, 4, VERSION);
+        Inode.putInt(superBlock, 8, blockCount);
+        Inode.putInt(superBlock, 12, bitmapStart);
+        Inode.putInt(superBlock, 16, bitmapBlocks);
+        Inode.putInt(superBlock, 20, inodeMapStart);
+        Inode.putInt(superBlock, 24, inodeMapBlocks);
+        Inode.putInt(superBlock, 28, inodeStart);
+        Inode.putInt(superBlock, 32, inodeBlocks);
+        Inode.putInt(superBlock, 36, inodeCount);
+        Inode.putInt(superBlock, 40, STATE_MOUNTED);
+        cache.write(0, superBlock);
+
+        //The superblock and the tables are never available for files.  The
+        //inode table starts out as zeros (all inodes free), which is what
+        //the disk was just formatted to.
+        freeMap = new AtomicBitmap(blockCount);
+        freeMap.set(0, Math.min(dataStart, blockCount));
+        nextFreeBlock = dataStart;
+
+        //Create the empty root directory.
+        inodeMap = new AtomicBitmap(inodeCount);
+        inodeMap.set(0);
+        inodeMap.set(ROOT_INODE);
+        nextFreeInode = ROOT_INODE + 1;
+        Inode rootInode = new Inode(ROOT_INODE);
+        rootInode.type = Inode.DIRECTORY;
+        writeInode(rootInode);
+        initDirectory(rootInode, ROOT_INODE);
+
+        sync();
+    }
+
+    /**
+     * Writes the free map and the inode map back to disk if they have
+     * changed.
+     */
+    public void sync() {
+        if (freeMap.clearDirty()) {
+            writeBitmap(freeMap, bitmapStart, bitmapBlocks);
+        }
+        if (inodeMap.clearDirty()) {
+            writeBitmap(inodeMap, inodeMapStart, inodeMapBlocks);
+        }
+    }
+
+    /**
+     * Writes back whatever has been waiting too long.  The bitmaps are
+     * copied into the cache, and if any block has been dirty for maxAge
+     * milliseconds, all the dirty blocks are written to the disk together.
+     * @param maxAge the longest a block may stay dirty, in milliseconds.
+     * @return the number of blocks written.
+     */
+    public int writeBehind(long maxAge) {
+        sync();
+        return cache.flushAged(maxAge);
+    }
+
+    /**
+     * Brings the disk completely up to date and marks the file system as
+     * cleanly unmounted, so the next mount can trust the bitmaps.
+     */
+    public void unmount() {
+        //Files deleted while open are gone once nothing can close them.
+        List<Inode> open;
+        synchronized (openInodes) {
+            open = new ArrayList<Inode>(openInodes.values());
+            openInodes.clear();
+        }
+        for (Inode inode : open) {
+            if (inode.unlinked) {
+                freeInode(inode);
+            }
+        }
+        sync();
+        cache.flush();
+        writeState(STATE_CLEAN);
+    }
+
+    /**
+     * Saves everything written so far to the DISK file without unmounting.
+     * The superblock still says the file system is mounted, so a crash after
+     * a checkpoint rebuilds the bitmaps, but no data written before the
+     * checkpoint is lost.
+     * @return the number of disk blocks saved.
+     */
+    public int checkpoint() {
+        sync();
+        cache.flush();
+        return disk.checkpoint();
+    }
+
+    /**
+     * Records the state of the file system in the superblock and writes the
+     * superblock straight through to the disk.
+     * @param state STATE_CLEAN or STATE_MOUNTED.
+     */
+    private void writeState(int state) {
+        byte buffer[] = new byte[4];
+        Inode.putInt(buffer, 0, state);
+        cache.write(0, 40, buffer, 0, 4);
+        cache.flush(0);
+    }
+
+    /**
+     * Reads a bitmap from disk.
+     * @param start The first block of the bitmap.
+     * @param blocks The number of blocks in the bitmap.
+     * @return The bitmap.
+     */
+    private AtomicBitmap readBitmap(int start, int blocks) {
+        int blockSize = disk.getBlockSize();
+        byte bitmap[] = new byte[blocks * blockSize];
+        for (int i = 0; i < blocks; i++) {
+            cache.read(start + i, 0, bitmap, i * blockSize, blockSize);
+        }
+        return AtomicBitmap.valueOf(bitmap);
+    }
+
+    /**
+     * Writes a bitmap to disk.
+     * @param map The bitmap.
+     * @param start The first block of the bitmap.
+     * @param blocks The number of blocks in the bitmap.
+     */
+    private void writeBitmap(AtomicBitmap map, int start, int blocks) {
+        int blockSize = disk.getBlockSize();
+        byte bitmap[] = map.toByteArray(blocks * blockSize);
+        for (int i = 0; i < blocks; i++) {
+            cache.write(start + i, 0, bitmap, i * blockSize, blockSize);
+        }
+    }
+
+    /**
+     * Rebuilds the free map and the inode map from the inode table.
+     * The table is split into one range of blocks per processor, and each
+     * range is scanned by its own thread into its own pair of bitmaps, which
+     * are then merged.  The scan reads the disk directly rather than through
+     * the cache, and each thread decodes inodes in place in two block
+     * buffers, so nothing is allocated per inode.
+     */
+    private void recover() {
+        int workers = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors(), inodeBlocks));
+        InodeScanner scanners[] = new InodeScanner[workers];
+        for (int i = 0; i < workers; i++) {
+            scanners[i] = new InodeScanner(
+                    inodeBlocks * i / workers, inodeBlocks * (i + 1) / workers);
+            scanners[i].start();
+        }
+
+        freeMap = new AtomicBitmap(blockCount);
+        freeMap.set(0, Math.min(dataStart, blockCount));
+        inodeMap = new AtomicBitmap(inodeCount);
+        inodeMap.set(0);
+        for (InodeScanner scanner : scanners) {
+            try {
+                scanner.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            freeMap.or(scanner.blocksInUse);
+            inodeMap.or(scanner.inodesInUse);
+        }
+        sync();
+    }
+
+    /** A thread that scans part of the inode table for recover(). */
+    private class InodeScanner extends Thread {
+        /** The first block of the inode table to scan. */
+        private final int firstBlock;
+
+        /** The block of the inode table after the last one to scan. */
+        private final int endBlock;
+
+        /** The blocks used by the inodes scanned. */
+        final BitSet blocksInUse = new BitSet(blockCount);
+
+        /** The inodes found to be in use. */
+        final BitSet inodesInUse = new BitSet(inodeCount);
+
+        /** Creates a scanner for part of the inode table.
+         * @param firstBlock The first block of the table to scan.
+         * @param endBlock The block after the last one to scan.
+         */
+        InodeScanner(int firstBlock, int endBlock) {
+            this.firstBlock = firstBlock;
+            this.endBlock = endBlock;
+        }
+
+        /** Scans the inode blocks. */
+        public void run() {
+            byte table[] = new byte[disk.getBlockSize()];
+            byte indirect[] = new byte[disk.getBlockSize()];
+            for (int b = firstBlock; b < endBlock; b++) {
+                disk.read(inodeStart + b, table);
+                for (int i = 0; i < Inode.PER_BLOCK; i++) {
+                    int offset = i * Inode.SIZE;
+                    if (table[offset] == Inode.FREE) {
+                        continue;
+                    }
+                    inodesInUse.set(b * Inode.PER_BLOCK + i);
+                    int extents = Inode.getShort(table, offset + 2);
+                    for (int e = 0;
+                            e < Math.min(extents, Inode.DIRECT_EXTENTS); e++) {
+                        int start = Inode.getInt(table, offset + 16 + 8 * e);
+                        int length = Inode.getInt(table, offset + 20 + 8 * e);
+                        blocksInUse.set(start, start + length);
+                    }
+                    if (extents > Inode.DIRECT_EXTENTS) {
+                        int block = Inode.getInt(table, offset + 8);
+                        blocksInUse.set(block);
+                        disk.read(block, indirect);
+                        for (int e = 0;
+                                e < extents - Inode.DIRECT_EXTENTS; e++) {
+                            int start = Inode.getInt(indirect, 8 * e);
+                            int length = Inode.getInt(indirect, 8 * e + 4);
+                            blocksInUse.set(start, start + length);
+                        }
+                    }
+                }
+            }
+        } // run()
+    } // class InodeScanner
+
+    /**
+     * Returns a directory, loading it if it is not in memory.  The caller
+     * must hold the directory's read or write lock, and must not use the
+     * Directory after releasing it: once the lock is free, the directory
+     * may be dropped from memory and loaded again as a new Directory.
+     * @param number The inode number of the directory.
+     * @return The directory, or null if the inode is not a directory.
+     */
+    public Directory getDirectory(int number) {
+        synchronized (directories) {
+            Directory dir = directories.get(number);
+            if (dir != null) {
+                return dir;
+            }
+        }
+        Inode inode = readInode(number);
+        if (inode.type != Inode.DIRECTORY) {
+            return null;
+        }
+        //Two readers may load the directory at once; both copies are the
+        //same, since no writer can change it while they hold the lock.
+        Directory dir = new Directory(this, inode);
+        synchronized (directories) {
+            Directory loaded = directories.get(number);
+            if (loaded != null) {
+                return loaded;
+            }
+            directories.put(number, dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Tells whether an inode is a directory.
+     * @param number The inode number.
+     * @return True if it is.
+     */
+    public boolean isDirectory(int number) {
+        synchronized (directories) {
+            if (directories.containsKey(number)) {
+                return true;
+            }
+        }
+        return readInode(number).type == Inode.DIRECTORY;
+    }
+
+    /**
+     * Fills in a new, empty directory with its "." and ".." entries.
+     * @param inode The directory's inode, already allocated with type
+     * DIRECTORY.
+     * @param parent The inode number of the directory that will hold it.
+     * @return True on success, false if the disk is full.
+     */
+    public boolean initDirectory(Inode inode, int parent) {
+        Directory dir = new Directory(this, inode);
+        if (!dir.add(".", inode.number, Inode.DIRECTORY)
+                || !dir.add("..", parent, Inode.DIRECTORY)) {
+            return false;
+        }
+        synchronized (directories) {
+            directories.put(inode.number, dir);
+        }
+        return true;
+    }
+
+    /**
+     * Frees a directory that has been removed from its parent.  The caller
+     * must hold the directory's write lock.
+     * @param dir The directory.
+     */
+    public void freeDirectory(Directory dir) {
+        synchronized (directories) {
+            directories.remove(dir.getInode().number);
+        }
+        dentries.purge(dir.getInode().number);
+        freeInode(dir.getInode());
+    }
+
+    /**
+     * Allocates a free inode.  The inode is marked in use, but nothing is
+     * written to disk until the caller fills it in and calls writeInode().
+     * @return A new inode, or null if every inode is in use.
+     */
+    public Inode allocateInode() {
+        int number;
+        do {
+            number = inodeMap.nextClearBit(nextFreeInode);
+            if (number >= inodeCount) {
+                number = inodeMap.nextClearBit(ROOT_INODE + 1);
+                if (number >= inodeCount) {
+                    return null;
+                }
+            }
+        } while (!inodeMap.set(number));
+        nextFreeInode = number + 1;
+        return new Inode(number);
+    }
+
+    /**
+     * Reads an inode from the inode table.  If the file is open, the shared
+     * in-memory copy is returned instead.
+     * @param number The number of the inode.
+     * @return The inode.
+     */
+    public Inode readInode(int number) {
+        Inode inode;
+        synchronized (openInodes) {
+            inode = openInodes.get(number);
+        }
+        if (inode != null) {
+            return inode;
+        }
+        inode = new Inode(number);
+        byte buffer[] = new byte[Inode.SIZE];
+        cache.read(inodeStart + number / Inode.PER_BLOCK,
+                (number % Inode.PER_BLOCK) * Inode.SIZE,
+                buffer, 0, Inode.SIZE);
+        inode.decode(buffer, 0);
+        if (inode.extentCount > Inode.DIRECT_EXTENTS) {
+            byte indirect[] = new byte[disk.getBlockSize()];
+            cache.read(inode.indirectBlock, indirect);
+            inode.decodeIndirect(indirect);
+        }
+        return inode;
+    }
+
+    /**
+     * Writes an inode back to the inode table, along with its indirect
+     * block if it has one.
+     * @param inode The inode to write.
+     */
+    public void writeInode(Inode inode) {
+        byte buffer[] = new byte[Inode.SIZE];
+        inode.encode(buffer, 0);
+        cache.write(inodeStart + inode.number / Inode.PER_BLOCK,
+                (inode.number % Inode.PER_BLOCK) * Inode.SIZE,
+                buffer, 0, Inode.SIZE);
+        if (inode.indirectBlock != 0) {
+            byte indirect[] = new byte[disk.getBlockSize()];
+            inode.encodeIndirect(indirect);
+            cache.write(inode.indirectBlock, indirect);
+        }
+    }
+
+    /**
+     * Releases an inode and all of its blocks.
+     * @param inode The inode to free.
+     */
+    public void freeInode(Inode inode) {
+        if (inode.inline != null) {
+            inode.inline = null;
+            inode.size = 0;
+        }
+        synchronized (links) {
+            links.remove(inode.number);
+        }
+        truncate(inode, 0);
+        inode.type = Inode.FREE;
+        writeInode(inode);
+        inodeMap.clear(inode.number);
+    }
+
+    /**
+     * Opens a file, entering its inode in the table of open inodes.
+     * @param number The number of the file's inode.
+     * @return The shared in-memory inode.
+     */
+    public Inode open(int number) {
+        //Read the inode without holding the table's monitor, which may mean
+        //waiting for the disk.  If someone else opens the file meanwhile,
+        //their copy is the one shared.
+        Inode loaded = readInode(number);
+        synchronized (openInodes) {
+            Inode inode = openInodes.get(number);
+            if (inode == null) {
+                inode = loaded;
+                openInodes.put(number, inode);
+            }
+            inode.openCount++;
+            return inode;
+        }
+    }
+
+    /**
+     * Closes a file opened with open().  When the last open of a file is
+     * closed, its inode leaves the table, and is freed if the file was
+     * deleted in the meantime.
+     * @param inode The inode returned by open().
+     */
+    public void close(Inode inode) {
+        synchronized (openInodes) {
+            if (--inode.openCount > 0) {
+                return;
+            }
+            openInodes.remove(inode.number);
+        }
+        if (inode.unlinked) {
+            freeInode(inode);
+        }
+    }
+
+    /**
+     * Frees the inode of a file whose name has been removed, or, if the file
+     * is open, arranges for it to be freed when it is closed.
+     * @param inode The file's inode.
+     */
+    public void release(Inode inode) {
+        synchronized (openInodes) {
+            if (inode.openCount > 0) {
+                inode.unlinked = true;
+                return;
+            }
+        }
+        freeInode(inode);
+    }
+
+    /**
+     * Reads data from a file.  The caller must hold the file's read lock.
+     * @param inode The file to read.
+     * @param offset The position in the file of the first byte to read.
+     * @param buffer The destination for the data.
+     * @param bufferOffset Where in buffer to put the first byte.
+     * @param length The most bytes to read.
+     * @return The number of bytes read, which is less than length only if
+     * the end of the file was reached.
+     */
+    public int readFile(Inode inode, int offset,
+            byte buffer[], int bufferOffset, int length) {
+        return readFile(inode, offset, buffer, bufferOffset, length, null);
+    }
+
+    /**
+     * Reads data from a file, prefetching the blocks that follow if the
+     * reads are sequential.  The caller must hold the file's read lock.
+     * @param inode The file to read.
+     * @param offset The position in the file of the first byte to read.
+     * @param buffer The destination for the data.
+     * @param bufferOffset Where in buffer to put the first byte.
+     * @param length The most bytes to read.
+     * @param ra The read-ahead state of the stream of reads this one
+     * belongs to, or null to prefetch nothing.
+     * @return The number of bytes read, which is less than length only if
+     * the end of the file was reached.
+     */
+    public int readFile(Inode inode, int offset, byte buffer[],
+            int bufferOffset, int length, ReadAhead ra) {
+        int blockSize = disk.getBlockSize();
+        length = Math.max(0, Math.min(length, inode.size - offset));
+        if (ra != null && length > 0) {
+            int first = offset / blockSize;
+            int last = (offset + length - 1) / blockSize;
+            //See whether what was prefetched for this read is still there.
+            int kept = 0;
+            int lost = 0;
+            for (int b = first; b <= last && b < ra.getPrefetchedTo(); b++) {
+                if (cache.contains(inode.getBlock(b))) {
+                    kept++;
+                } else {
+                    lost++;
+                }
+            }
+            int ahead[] = ra.access(first, last, kept, lost);
+            if (ahead != null) {
+                ra.prefetched(ahead[0], prefetch(inode, ahead[0], ahead[1]));
+            }
+        }
+        int done = 0;
+        while (done < length) {
+            int position = offset + done;
+            int blockOffset = position % blockSize;
+            int fileBlock = position / blockSize;
+            if (blockOffset == 0 && length - done >= blockSize) {
+                //Read whole blocks that are contiguous on the disk together.
+                int n = Math.min(inode.getRunLength(fileBlock),
+                        (length - done) / blockSize);
+                cache.readBlocks(inode.getBlock(fileBlock), n,
+                        buffer, bufferOffset + done);
+                done += n * blockSize;
+                continue;
+            }
+            int n = Math.min(blockSize - blockOffset, length - done);
+            cache.read(inode.getBlock(fileBlock), blockOffset,
+                    buffer, bufferOffset + done, n);
+            done += n;
+        }
+        return length;
+    }
+
+    /**
+     * Starts reading blocks of a file into the cache.  Blocks past the end
+     * of the file are ignored.
+     * @param inode The file.
+     * @param fileBlock The first block of the file to prefetch.
+     * @param count The number of blocks.
+     * @return The number of blocks, from fileBlock on, that the cache took
+     * on, which is less than count if it had no room for the rest.
+     */
+    private int prefetch(Inode inode, int fileBlock, int count) {
+        int start = fileBlock;
+        int end = Math.min(fileBlock + count, inode.getBlockCount());
+        while (fileBlock < end) {
+            int n = Math.min(inode.getRunLength(fileBlock), end - fileBlock);
+            int done = cache.prefetch(inode.getBlock(fileBlock), n);
+            fileBlock += done;
+            if (done < n) {
+                break;
+            }
+        }
+        return fileBlock - start;
+    }
+
+    /**
+     * Writes data to a file, allocating blocks as needed.  The file grows if
+     * the data goes past its end; any gap is filled with zeros.  The caller
+     * must hold the file's write lock.
+     * @param inode The file to write.
+     * @param offset The position in the file of the first byte to write.
+     * @param buffer The data to write.
+     * @param bufferOffset Where in buffer the data starts.
+     * @param length The number of bytes to write.
+     * @return The number of bytes written, which is less than length only if
+     * the disk filled up.
+     */
+    public int writeFile(Inode inode, int offset,
+            byte buffer[], int bufferOffset, int length) {
+        int blockSize = disk.getBlockSize();
+
+        //Make sure the file has enough blocks.
+        int oldBlocks = inode.getBlockCount();
+        int neededBlocks = (offset + length + blockSize - 1) / blockSize;
+        int blocks = oldBlocks;
+        while (blocks < neededBlocks) {
+            int added = allocateExtent(inode, neededBlocks - blocks);
+            if (added == 0) {
+                break;
+            }
+            blocks += added;
+        }
+
+        //New blocks that the write only partly covers must not expose
+        //whatever was left on the disk.
+        for (int i = oldBlocks; i < blocks; i++) {
+            int start = i * blockSize;
+            if (start < offset || start + blockSize > offset + length) {
+                cache.write(inode.getBlock(i), zeroBlock);
+            }
+        }
+
+        length = Math.max(0, Math.min(length, blocks * blockSize - offset));
+        int done = 0;
+        while (done < length) {
+            int position = offset + done;
+            int blockOffset = position % blockSize;
+            int fileBlock = position / blockSize;
+            if (blockOffset == 0 && length - done >= blockSize) {
+                //Write whole blocks that are contiguous on the disk together.
+                int n = Math.min(inode.getRunLength(fileBlock),
+                        (length - done) / blockSize);
+                cache.writeBlocks(inode.getBlock(fileBlock), n,
+                        buffer, bufferOffset + done);
+                done += n * blockSize;
+                continue;
+            }
+            int n = Math.min(blockSize - blockOffset, length - done);
+            cache.write(inode.getBlock(fileBlock), blockOffset,
+                    buffer, bufferOffset + done, n);
+            done += n;
+        }
+        inode.size = Math.max(inode.size, offset + length);
+        writeInode(inode);
+        return length;
+    }
+
+    /**
+     * Shrinks a file, returning the blocks it no longer needs to the free
+     * map.  Does nothing if the file is already no bigger than size.  The
+     * caller must hold the file's write lock.
+     * @param inode The file to shrink.
+     * @param size The new size in bytes.
+     */
+    public void truncate(Inode inode, int size) {
+        if (size >= inode.size) {
+            return;
+        }
+        int blockSize = disk.getBlockSize();
+
+        //Keep the bytes past the end of the file zero, so the file can grow
+        //again without exposing old data.
+        if (size % blockSize != 0) {
+            int blockOffset = size % blockSize;
+            cache.write(inode.getBlock(size / blockSize), blockOffset,
+                    zeroBlock, 0, blockSize - blockOffset);
+        }
+
+        int keep = (size + blockSize - 1) / blockSize;
+        int blocks = 0;
+        int extents = 0;
+        for (int i = 0; i < inode.extentCount; i++) {
+            int start = inode.extentStart[i];
+            int length = inode.extentLength[i];
+            if (blocks + length <= keep) {
+                extents++;
+            } else if (blocks < keep) {
+                int kept = keep - blocks;
+                freeMap.clear(start + kept, start + length);
+                inode.extentLength[i] = kept;
+                extents++;
+            } else {
+                freeMap.clear(start, start + length);
+            }
+            blocks += length;
+        }
+        inode.extentCount = extents;
+        if (extents <= Inode.DIRECT_EXTENTS && inode.indirectBlock != 0) {
+            freeMap.clear(inode.indirectBlock);
+            inode.indirectBlock = 0;
+        }
+        inode.size = size;
+        writeInode(inode);
+    }
+
+    /**
+     * Adds blocks to the end of a file.  If the block after the file's last
+     * extent is free, the extent is lengthened; otherwise a new extent is
+     * started at the next free block (next-fit), so a file written
+     * sequentially stays contiguous as long as the disk allows.
+     * <p>
+     * Directories grow one entry at a time while other files are being
+     * written, so each new block would otherwise start a new extent.  A
+     * directory that needs a new extent is instead given at least as many
+     * blocks as it already has, so its extent count grows logarithmically.
+     * @param inode The file to grow.
+     * @param count The number of blocks wanted.
+     * @return The number of blocks added, between 1 and count (or more for a
+     * directory), or 0 if the disk is full or the file has no room for
+     * another extent.
+     */
+    private int allocateExtent(Inode inode, int count) {
+        int last = inode.extentCount - 1;
+        int start;
+        if (last >= 0) {
+            start = inode.extentStart[last] + inode.extentLength[last];
+            int length = (start < blockCount ? claimRun(start, count) : 0);
+            if (length > 0) {
+                inode.extentLength[last] += length;
+                return length;
+            }
+        }
+        if (inode.extentCount == Inode.MAX_EXTENTS) {
+            return 0;
+        }
+        boolean newIndirect = false;
+        if (inode.extentCount == Inode.DIRECT_EXTENTS
+                && inode.indirectBlock == 0) {
+            //The new extent goes in the indirect block, which must exist.
+            int indirect;
+            do {
+                indirect = findFreeBlock();
+                if (indirect == -1) {
+                    return 0;
+                }
+            } while (!freeMap.set(indirect));
+            inode.indirectBlock = indirect;
+            newIndirect = true;
+        }
+        if (inode.type == Inode.DIRECTORY) {
+            count = Math.max(count, inode.getBlockCount());
+        }
+        int length;
+        do {
+            start = findFreeBlock();
+            if (start == -1) {
+                //No room for the extent, so no need for the indirect block.
+                if (newIndirect) {
+                    freeMap.clear(inode.indirectBlock);
+                    inode.indirectBlock = 0;
+                }
+                return 0;
+            }
+            length = claimRun(start, count);
+        } while (length == 0);
+        inode.extentStart[inode.extentCount] = start;
+        inode.extentLength[inode.extentCount] = length;
+        inode.extentCount++;
+        return length;
+    }
+
+    /**
+     * Finds a free block, searching forward from the block after the last
+     * one allocated and wrapping around at the end of the disk.
+     * @return The block number, or -1 if the disk is full.
+     */
+    private int findFreeBlock() {
+        int block = freeMap.nextClearBit(nextFreeBlock);
+        if (block >= blockCount) {
+            block = freeMap.nextClearBit(dataStart);
+            if (block >= blockCount) {
+                return -1;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Allocates a run of free blocks, claiming them one at a time until one
+     * is found to be in use.
+     * @param start The first block of the run.
+     * @param count The most blocks wanted.
+     * @return The number of blocks allocated, starting at start, which is 0
+     * if start itself is in use.
+     */
+    private int claimRun(int start, int count) {
+        int end = start;
+        while (end < Math.min(blockCount, start + count) && freeMap.set(end)) {
+            end++;
+        }
+        if (end > start) {
+            nextFreeBlock = end;
+        }
+        return end - start;
+    }
+
+    /**
+     * Enters a file in a directory.  The caller must hold the directory's
+     * write lock.
+     * @param dir The inode number of the directory.
+     * @param fileName The file's name.
+     * @param inode The file's inode.
+     * @return True on success, false if the disk is full.
+     */
+    public boolean link(int dir, String fileName, Inode inode) {
+        if (!getDirectory(dir).add(fileName, inode.getNumber(),
+                inode.getType())) {
+            return false;
+        }
+        dentries.enter(dir, fileName, inode.getNumber(), inode.getType());
+        return true;
+    }
+
+    /**
+     * Removes a file from a directory.  The file's inode is not freed.  The
+     * caller must hold the directory's write lock.
+     * @param dir The inode number of the directory.
+     * @param fileName The file's name.
+     * @return The number of the file's inode, or -1 if there is no such file.
+     */
+    public int unlink(int dir, String fileName) {
+        dentries.remove(dir, fileName);
+        return getDirectory(dir).remove(fileName);
+    }
+
+    /**
+     * Finds the inode of a file in a directory.
+     * @param dir The inode number of the directory.
+     * @param fileName The name of the file.
+     * @return The inode number, or -1 if there is no such file or dir is not
+     * a directory.
+     */
+    public int lookup(int dir, String fileName) {
+        return lookupEntry(dir, fileName).number;
+    }
+
+    /**
+     * Finds what a name in a directory refers to, through the DentryCache.
+     * Only if the name is not in the cache is the directory's read lock
+     * taken, to look in the directory itself.
+     * @param dir The inode number of the directory.
+     * @param fileName The name of the file.
+     * @return The entry, which is DentryCache.NEGATIVE if there is no such
+     * file or dir is not a directory.
+     */
+    private DentryCache.Dentry lookupEntry(int dir, String fileName) {
+        DentryCache.Dentry entry = dentries.get(dir, fileName);
+        if (entry != null) {
+            return entry;
+        }
+        Lock lock = locks.readLock(dir);
+        lock.lock();
+        try {
+            Directory d = getDirectory(dir);
+            if (d == null) {
+                return DentryCache.NEGATIVE;
+            }
+            return dentries.enter(dir, fileName, d.lookup(fileName),
+                    d.getType(fileName));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the inode a pathname refers to, following symlinks.
+     * @param cwd The inode number of the directory a relative pathname
+     * starts from.
+     * @param path The pathname.
+     * @return The inode number, or -1 if there is no such file or too many
+     * symlinks were followed.
+     */
+    public int lookupPath(int cwd, String path) {
+        return resolve(cwd, path, true, new int[1]);
+    }
+
+    /**
+     * Finds the inode a pathname refers to, following symlinks except in
+     * the last component.
+     * @param cwd The inode number of the directory a relative pathname
+     * starts from.
+     * @param path The pathname.
+     * @return The inode number, which is that of the link itself if the
+     * pathname names a symlink, or -1 if there is no such file.
+     */
+    public int lookupLink(int cwd, String path) {
+        return resolve(cwd, path, false, new int[1]);
+    }
+
+    /**
+     * Resolves a pathname.
+     * @param start The inode number of the directory a relative pathname
+     * starts from.
+     * @param path The pathname.
+     * @param followLast True to follow a symlink in the last component.
+     * @param hops The number of symlinks followed so far, in element 0.
+     * @return The inode number, or -1 if there is no such file or hops
+     * passes MAX_SYMLINK_HOPS.
+     */
+    private int resolve(int start, String path, boolean followLast,
+            int hops[]) {
+        int number = path.startsWith("/") ? ROOT_INODE : start;
+        List<String> names = components(path);
+        for (int i = 0; i < names.size(); i++) {
+            int dir = number;
+            DentryCache.Dentry entry = lookupEntry(dir, names.get(i));
+            number = entry.number;
+            if (number == -1) {
+                return -1;
+            }
+            if (entry.type == Inode.SYMLINK
+                    && (followLast || i < names.size() - 1)) {
+                if (++hops[0] > MAX_SYMLINK_HOPS) {
+                    return -1;
+                }
+                number = resolve(dir, readLink(number), true, hops);
+                if (number == -1) {
+                    return -1;
+                }
+            }
+        }
+        return number;
+    }
+
+    /**
+     * Stores the target of a new symlink.
+     * @param inode The symlink's inode, already allocated with type
+     * SYMLINK.
+     * @param target The target pathname.
+     * @return True on success, false if the disk is full.
+     */
+    public boolean writeLink(Inode inode, String target) {
+        byte bytes[] = target.getBytes();
+        if (bytes.length <= Inode.INLINE_SIZE) {
+            inode.inline = bytes;
+            inode.size = bytes.length;
+            writeInode(inode);
+        } else if (writeFile(inode, 0, bytes, 0, bytes.length)
+                != bytes.length) {
+            return false;
+        }
+        synchronized (links) {
+            links.put(inode.number, target);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the target of a symlink.
+     * @param number The inode number of the symlink.
+     * @return The target pathname, or null if the inode is not a symlink.
+     */
+    public String readLink(int number) {
+        String target;
+        synchronized (links) {
+            target = links.get(number);
+        }
+        if (target == null) {
+            Inode inode = readInode(number);
+            if (inode.type != Inode.SYMLINK) {
+                return null;
+            }
+            if (inode.inline != null) {
+                target = new String(inode.inline);
+            } else {
+                byte bytes[] = new byte[inode.size];
+                readFile(inode, 0, bytes, 0, bytes.length);
+                target = new String(bytes);
+            }
+            synchronized (links) {
+                links.put(number, target);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Finds the directory that holds, or would hold, the last component of
+     * a pathname.
+     * @param cwd The inode number of the directory a relative pathname
+     * starts from.
+     * @param path The pathname.
+     * @return The inode number of the directory, or -1 if there is no such
+     * directory or the pathname has no components.
+     */
+    public int lookupParent(int cwd, String path) {
+        List<String> names = components(path);
+        if (names.isEmpty()) {
+            return -1;
+        }
+        String last = names.get(names.size() - 1);
+        int number = resolve(cwd, path.substring(0, path.lastIndexOf(last)),
+                true, new int[1]);
+        return number == -1 || !isDirectory(number) ? -1 : number;
+    }
+
+    /**
+     * Returns the last component of a pathname.
+     * @param path The pathname.
+     * @return The last component, or null if there is none.
+     */
+    public static String baseName(String path) {
+        List<String> names = components(path);
+        return names.isEmpty() ? null : names.get(names.size() - 1);
+    }
+
+    /**
+     * Splits a pathname into its components.
+     * @param path The pathname.
+     * @return The non-empty components, in order.
+     */
+    private static List<String> components(String path) {
+        List<String> names = new ArrayList<String>();
+        for (String name : path.split("/")) {
+            if (name.length() > 0) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
 } // FileSys
@@ -57,8 +57,11 @@ public class FileTester {
         
         //************Code added by Brett Duncan*********************//
         
-        //Power on the disk
-        Kernel.interrupt(Kernel.INTERRUPT_POWER_ON, 10, 0, new FastDisk(100), null, null);
+        //Power on the disk, unless the kernel is already running with this as
+        //its shell.
+        if (Library.getBlockSizeOfDisk() < 0) {
+            Kernel.interrupt(Kernel.INTERRUPT_POWER_ON, 10, 0, new MappedDisk(100), null, null);
+        }
         //XXX: Script to test commands
 //        args = new String[1];
 ////        args[0] = "test1.script";
@@ -191,6 +194,11 @@ public class FileTester {
                 if (result != 0) {
                     if (result == -1) {
                         out.printf("*** System call failed\n");
+                    } else if (result < 0
+                            && -result < Library.errorMessage.length)
+                    {
+                        out.printf("*** System call failed: %s\n",
+                                    Library.errorMessage[-result]);
                     } else {
                         out.printf("*** Bad result %d from system call\n",
                                     result);
@@ -232,7 +240,7 @@ public class FileTester {
      * or Library.readlink and displays the results.
      * @param fname the name of the file or symlink.
      * @param isLink true to read a symlink, false to read an ordinary file.
-     * @return the result of the Library.read call.
+     * @return 0, or the result of the Library.read call if it failed.
      */
     private static int readTest(String fname, boolean isLink) {
         byte[] buf = new byte[blockSize];
@@ -243,7 +251,10 @@ public class FileTester {
         if (n < 0) {
             return n;
         }
-        for (int i = 0; i < buf.length; i++) {
+        // Library.read returns the number of bytes read; readlink returns 0
+        // and leaves the rest of the buffer zero.
+        int end = isLink ? buf.length : n;
+        for (int i = 0; i < end; i++) {
             if (buf[i] != 0) {
                 showChar(buf[i] & 0xff);
                 needNewline = (buf[i] != '\n');
@@ -252,13 +263,14 @@ public class FileTester {
         if (needNewline) {
             out.printf("\n");
         }
-        return n;
+        return 0;
     } // readTest(String,boolean)
 
     /** Writes data to a (simulated) file using Library.write.
      * @param fname the name of the file.
      * @param info a source of data.
-     * @return the result of the Library.write call.
+     * @return 0, or -1 if the Library.write call failed or wrote less than
+     * all the data.
      */
     private static int writeTest(String fname, String info) {
         // Info has the format 'write fname one two three ...
@@ -279,14 +291,15 @@ public class FileTester {
         while (p < info.length()) {
             buf[i++] = (byte) info.charAt(p++);
         }
-        return Library.write(fname, buf);
+        return Library.write(fname, buf, 0, i) == i ? 0 : -1;
     } // writeTest(String, byte[])
 
     /** Write data to a (simulated) file using Library.write.
      * Data comes from the following lines in the input stream.
      * @param fname the name of the file.
      * @param in the input stream.
-     * @return the result of the Library.write call.
+     * @return 0, or -1 if the Library.write call failed or wrote less than
+     * all the data.
      */
     private static int writeLines(String fname, BufferedReader in) {
         try {
@@ -310,7 +323,7 @@ public class FileTester {
                 }
                 buf[i++] = '\n';
             }
-            return Library.write(fname, buf);
+            return Library.write(fname, buf, 0, i) == i ? 0 : -1;
         } catch (IOException e) {
             e.printStackTrace();
             return -1;
@@ -336,16 +349,38 @@ public class FileTester {
         out.printf("\\%03o", b);
     } // showChar(int)
 
+    /** Reads all the entries of a directory, a block's worth at a time.
+     * @param dirname the name of the directory.
+     * @return the entries, in the format of Library.readdir(), or null if
+     * the directory cannot be read.
+     */
+    private static byte[] readAll(String dirname) {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        byte[] buf = new byte[blockSize];
+        int perCall = buf.length / 16;
+        for (int start = 0; ; ) {
+            int n = Library.readdir(dirname, buf, start);
+            if (n < 0) {
+                return null;
+            }
+            all.write(buf, 0, n * 16);
+            start += n;
+            if (n < perCall) {
+                return all.toByteArray();
+            }
+        }
+    } // readAll(String)
+
     /** Displays the contents of a directory.
      * @param dirname the name of the directory.
-     * @return the result of the readdir call.
+     * @return 0, or the result of a failed readdir or readlink call.
      */
     private static int dumpDir(String dirname) {
-        byte[] buf = new byte[blockSize];
-        int n = Library.readdir(dirname, buf);
-        if (n < 0) {
-            return n;
+        byte[] buf = readAll(dirname);
+        if (buf == null) {
+            return -1;
         }
+        int n = 0;
         for (int i = 0; i < buf.length; i += 16) {
             int block = ((buf[i] & 0xff) << 8) + (buf [i+1] & 0xff);
             if (block == 0) {
@@ -396,14 +431,14 @@ public class FileTester {
      * @return 0 if everything is ok, or -1 if there is an error.
      */
     private static int pwd() {
-        int rc, dot, dotdot;
+        int dot, dotdot;
         int child = 0;
         String relPath = ".";
         List<String> path = new LinkedList<String>();
-        byte[] buf = new byte[blockSize];
+        byte[] buf;
         for (;;) {
-            rc = Library.readdir(relPath, buf);
-            if (rc != 0) {
+            buf = readAll(relPath);
+            if (buf == null) {
                 out.printf("pwd:  cannot read directory \"%s\"\n", relPath);
                 return -1;
             }
@@ -461,7 +496,7 @@ public class FileTester {
                     break;
                 }
             }
-            if (j == s.length() && buf[offset + j + 3] == 0) {
+            if (j == s.length() && (j == 13 || buf[offset + j + 3] == 0)) {
                 return (((buf[offset] & 0xff) << 8) + (buf[offset+1] & 0xff));
             }
         }
@@ -0,0 +1,282 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.*;
+
+/** The in-memory copy of one inode.
+ * <p>
+ * An inode describes one file: its type, its size in bytes, and where its
+ * data lives on the disk.  The data is recorded as a list of extents, each
+ * a run of contiguous blocks given by a starting block number and a length.
+ * The first DIRECT_EXTENTS extents are stored in the inode itself; if a file
+ * needs more, the rest are kept in a single indirect block.
+ * <p>
+ * On disk an inode occupies SIZE bytes, laid out as follows:
+ * <pre>
+ *     0      type (FREE, ORDINARY, DIRECTORY or SYMLINK)
+ *     1      unused
+ *     2-3    number of extents
+ *     4-7    size of the file in bytes
+ *     8-11   indirect block (0 if there is none)
+ *     12-15  unused
+ *     16-63  DIRECT_EXTENTS extents, each a 4-byte start and 4-byte length
+ * </pre>
+ * The indirect block holds EXTENTS_PER_BLOCK more extents in the same
+ * 8-byte format.  All integers are big-endian.
+ * <p>
+ * A symbolic link whose target is no longer than INLINE_SIZE bytes keeps
+ * the target in bytes 16 onwards, in place of the extents, and has no
+ * blocks at all.  A longer target is stored as the contents of the file.
+ *
+ * @see FileSys
+ */
+public class Inode {
+    /** The size of an inode on disk, in bytes. */
+    public static final int SIZE = 64;
+
+    /** The number of inodes stored in each block of the inode table. */
+    public static final int PER_BLOCK = Disk.BLOCK_SIZE / SIZE;
+
+    /** The number of extents stored in the inode itself. */
+    public static final int DIRECT_EXTENTS = 6;
+
+    /** The number of extents stored in an indirect block. */
+    public static final int EXTENTS_PER_BLOCK = Disk.BLOCK_SIZE / 8;
+
+    /** The largest number of extents a file can have. */
+    public static final int MAX_EXTENTS = DIRECT_EXTENTS + EXTENTS_PER_BLOCK;
+
+    /** The type of an unused inode. */
+    public static final byte FREE = 0;
+
+    /** The type of an ordinary file. */
+    public static final byte ORDINARY = 'O';
+
+    /** The type of a directory. */
+    public static final byte DIRECTORY = 'D';
+
+    /** The type of a symbolic link. */
+    public static final byte SYMLINK = 'L';
+
+    /** The longest symlink target stored in the inode itself. */
+    public static final int INLINE_SIZE = SIZE - 16;
+
+    /** The number of this inode, i.e., its index in the inode table. */
+    final int number;
+
+    /** The type of file, FREE, ORDINARY, DIRECTORY or SYMLINK. */
+    byte type;
+
+    /** The size of the file in bytes. */
+    int size;
+
+    /** The number of extents in use. */
+    int extentCount;
+
+    /** The first block of each extent. */
+    final int extentStart[] = new int[MAX_EXTENTS];
+
+    /** The number of blocks in each extent. */
+    final int extentLength[] = new int[MAX_EXTENTS];
+
+    /** The block holding extents beyond the first DIRECT_EXTENTS, or 0. */
+    int indirectBlock;
+
+    /** The target of a symlink stored in the inode itself, or null. */
+    byte inline[];
+
+    /** The number of open files using this copy of the inode.  Not stored
+     * on disk.
+     */
+    int openCount;
+
+    /** True if the file's name was removed while it was open, so the inode
+     * is to be freed when the last open file is closed.  Not stored on disk.
+     */
+    boolean unlinked;
+
+    /** Creates a new, free inode.
+     * @param number the number of the inode.
+     */
+    public Inode(int number) {
+        this.number = number;
+    } // Inode(int)
+
+    /** Returns the number of this inode.
+     * @return the inode number.
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /** Returns the type of this inode.
+     * @return FREE, ORDINARY, DIRECTORY or SYMLINK.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /** Returns the size of the file.
+     * @return the size in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns the number of data blocks allocated to the file.
+     * @return the total length of all the extents.
+     */
+    public int getBlockCount() {
+        int count = 0;
+        for (int i = 0; i < extentCount; i++) {
+            count += extentLength[i];
+        }
+        return count;
+    } // getBlockCount()
+
+    /** Maps a block of the file to a block of the disk.
+     * @param fileBlock the index of a block within the file.
+     * @return the disk block holding it, or -1 if the file is not that long.
+     */
+    public int getBlock(int fileBlock) {
+        for (int i = 0; i < extentCount; i++) {
+            if (fileBlock < extentLength[i]) {
+                return extentStart[i] + fileBlock;
+            }
+            fileBlock -= extentLength[i];
+        }
+        return -1;
+    } // getBlock(int)
+
+    /** Counts the blocks of the file that follow a given block contiguously
+     * on the disk.
+     * @param fileBlock the index of a block within the file.
+     * @return the number of blocks, including fileBlock, from fileBlock to the
+     * end of its extent, or 0 if the file is not that long.
+     */
+    public int getRunLength(int fileBlock) {
+        for (int i = 0; i < extentCount; i++) {
+            if (fileBlock < extentLength[i]) {
+                return extentLength[i] - fileBlock;
+            }
+            fileBlock -= extentLength[i];
+        }
+        return 0;
+    } // getRunLength(int)
+
+    /** Fills in this inode from its on-disk form.
+     * Only the direct part is decoded; extents in the indirect block are
+     * loaded by decodeIndirect().
+     * @param buffer a block of the inode table.
+     * @param offset the offset of this inode within the block.
+     */
+    void decode(byte buffer[], int offset) {
+        type = buffer[offset];
+        extentCount = getShort(buffer, offset + 2);
+        size = getInt(buffer, offset + 4);
+        indirectBlock = getInt(buffer, offset + 8);
+        if (type == SYMLINK && size <= INLINE_SIZE) {
+            inline = Arrays.copyOfRange(buffer, offset + 16,
+                    offset + 16 + size);
+            return;
+        }
+        inline = null;
+        int n = Math.min(extentCount, DIRECT_EXTENTS);
+        for (int i = 0; i < n; i++) {
+            extentStart[i] = getInt(buffer, offset + 16 + 8 * i);
+            extentLength[i] = getInt(buffer, offset + 20 + 8 * i);
+        }
+    } // decode(byte[], int)
+
+    /** Stores the direct part of this inode in its on-disk form.
+     * @param buffer a block of the inode table.
+     * @param offset the offset of this inode within the block.
+     */
+    void encode(byte buffer[], int offset) {
+        buffer[offset] = type;
+        buffer[offset + 1] = 0;
+        putShort(buffer, offset + 2, extentCount);
+        putInt(buffer, offset + 4, size);
+        putInt(buffer, offset + 8, indirectBlock);
+        putInt(buffer, offset + 12, 0);
+        if (inline != null) {
+            Arrays.fill(buffer, offset + 16, offset + SIZE, (byte) 0);
+            System.arraycopy(inline, 0, buffer, offset + 16, inline.length);
+            return;
+        }
+        for (int i = 0; i < DIRECT_EXTENTS; i++) {
+            boolean used = i < extentCount;
+            putInt(buffer, offset + 16 + 8 * i, used ? extentStart[i] : 0);
+            putInt(buffer, offset + 20 + 8 * i, used ? extentLength[i] : 0);
+        }
+    } // encode(byte[], int)
+
+    /** Loads the extents kept in the indirect block.
+     * @param buffer the contents of the indirect block.
+     */
+    void decodeIndirect(byte buffer[]) {
+        for (int i = DIRECT_EXTENTS; i < extentCount; i++) {
+            int offset = 8 * (i - DIRECT_EXTENTS);
+            extentStart[i] = getInt(buffer, offset);
+            extentLength[i] = getInt(buffer, offset + 4);
+        }
+    } // decodeIndirect(byte[])
+
+    /** Stores the extents that belong in the indirect block.
+     * @param buffer a block-sized buffer to fill in.
+     */
+    void encodeIndirect(byte buffer[]) {
+        for (int i = DIRECT_EXTENTS; i < MAX_EXTENTS; i++) {
+            boolean used = i < extentCount;
+            int offset = 8 * (i - DIRECT_EXTENTS);
+            putInt(buffer, offset, used ? extentStart[i] : 0);
+            putInt(buffer, offset + 4, used ? extentLength[i] : 0);
+        }
+    } // encodeIndirect(byte[])
+
+    /** Reads a big-endian int from a byte array.
+     * @param buffer the array.
+     * @param offset where the int starts.
+     * @return the value.
+     */
+    static int getInt(byte buffer[], int offset) {
+        return ((buffer[offset] & 0xff) << 24)
+            | ((buffer[offset + 1] & 0xff) << 16)
+            | ((buffer[offset + 2] & 0xff) << 8)
+            | (buffer[offset + 3] & 0xff);
+    } // getInt(byte[], int)
+
+    /** Writes a big-endian int into a byte array.
+     * @param buffer the array.
+     * @param offset where the int starts.
+     * @param value the value to store.
+     */
+    static void putInt(byte buffer[], int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+    } // putInt(byte[], int, int)
+
+    /** Reads an unsigned big-endian short from a byte array.
+     * @param buffer the array.
+     * @param offset where the short starts.
+     * @return the value, in the range 0..65535.
+     */
+    static int getShort(byte buffer[], int offset) {
+        return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+    } // getShort(byte[], int)
+
+    /** Writes a big-endian short into a byte array.
+     * @param buffer the array.
+     * @param offset where the short starts.
+     * @param value the value to store.
+     */
+    static void putShort(byte buffer[], int offset, int value) {
+        buffer[offset] = (byte) (value >> 8);
+        buffer[offset + 1] = (byte) value;
+    } // putShort(byte[], int, int)
+} // Inode
@@ -0,0 +1,76 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.concurrent.locks.*;
+
+/** Read/write locks for inodes, shared out from a fixed set of stripes.
+ * <p>
+ * Inode n is protected by stripe n % STRIPES, so there is no lock object
+ * per inode, and two processes working on different files almost always
+ * take different locks.  The read lock of an inode is held while the file
+ * or directory is read, and the write lock while it is changed; any number
+ * of processes may read the same file at once.
+ * <p>
+ * An operation that needs two inodes, such as removing a file from a
+ * directory, takes both write locks with lock(int, int), which takes the
+ * stripes in a fixed order so that two such operations cannot deadlock.
+ * Nothing else may hold one inode lock while waiting for another.
+ *
+ * @see FileSys#getLocks()
+ */
+public class InodeLocks {
+    /** The number of stripes. */
+    public static final int STRIPES = 64;
+
+    /** The stripes. */
+    private final ReentrantReadWriteLock stripes[]
+        = new ReentrantReadWriteLock[STRIPES];
+
+    /** Creates a new set of InodeLocks, all of them free. */
+    public InodeLocks() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    } // InodeLocks()
+
+    /** Returns the lock that shares an inode among readers.
+     * @param number the inode number.
+     * @return the read lock of its stripe.
+     */
+    public Lock readLock(int number) {
+        return stripes[number % STRIPES].readLock();
+    } // readLock(int)
+
+    /** Returns the lock that gives a writer an inode to itself.
+     * @param number the inode number.
+     * @return the write lock of its stripe.
+     */
+    public Lock writeLock(int number) {
+        return stripes[number % STRIPES].writeLock();
+    } // writeLock(int)
+
+    /** Takes the write locks of two inodes.
+     * @param a one inode number.
+     * @param b the other.
+     */
+    public void lock(int a, int b) {
+        if (a % STRIPES > b % STRIPES) {
+            lock(b, a);
+            return;
+        }
+        writeLock(a).lock();
+        writeLock(b).lock();
+    } // lock(int, int)
+
+    /** Releases the write locks taken by lock(int, int).
+     * @param a one inode number.
+     * @param b the other.
+     */
+    public void unlock(int a, int b) {
+        writeLock(a).unlock();
+        writeLock(b).unlock();
+    } // unlock(int, int)
+} // InodeLocks
@@ -0,0 +1,138 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.util.concurrent.locks.*;
+import static minikernel.Checks.*;
+
+/** Checks the InodeLocks.
+ * <p>
+ * Whether a lock is free is found out by having a second thread try to
+ * take it, so a lock the main thread holds counts as taken.  Inodes
+ * STRIPES apart must share a stripe and neighbours must not; readers must
+ * share an inode and keep writers out.  lock(int, int) must cope with two
+ * inodes in the same stripe, which a naive version would lock twice.  Two
+ * threads then take the same pair of inodes over and over, naming them in
+ * opposite orders; if they have not both finished within ten seconds,
+ * they are taken to have deadlocked.
+ * <p>
+ * Usage: java minikernel.InodeLocksTester
+ *
+ * @see InodeLocks
+ */
+public class InodeLocksTester {
+    /** How many times each thread takes the pair in the deadlock check. */
+    private static final int ROUNDS = 100000;
+
+    /** Main program.
+     * @param args ignored.
+     */
+    public static void main(String args[]) {
+        stripes();
+        sharing();
+        pairs();
+        finish();
+    } // main(String[])
+
+    /** Checks which inodes share a stripe. */
+    private static void stripes() {
+        InodeLocks locks = new InodeLocks();
+        check("inodes STRIPES apart share a lock",
+                locks.writeLock(5) == locks.writeLock(5 + InodeLocks.STRIPES)
+                    && locks.readLock(5)
+                        == locks.readLock(5 + InodeLocks.STRIPES));
+        check("neighbouring inodes do not",
+                locks.writeLock(5) != locks.writeLock(6));
+    } // stripes()
+
+    /** Checks readers against writers. */
+    private static void sharing() {
+        InodeLocks locks = new InodeLocks();
+        locks.readLock(1).lock();
+        check("readers share an inode", available(locks.readLock(1)));
+        check("a reader keeps out a writer", !available(locks.writeLock(1)));
+        check("other inodes are free", available(locks.writeLock(2)));
+        locks.readLock(1).unlock();
+        locks.writeLock(1).lock();
+        check("a writer keeps out readers", !available(locks.readLock(1)));
+        locks.writeLock(1).unlock();
+        check("unlocked inode is free", available(locks.writeLock(1)));
+    } // sharing()
+
+    /** Checks lock(int, int) and unlock(int, int). */
+    private static void pairs() {
+        final InodeLocks locks = new InodeLocks();
+        int twin = 3 + InodeLocks.STRIPES;
+        locks.lock(3, twin);
+        check("lock takes a pair on one stripe",
+                !available(locks.writeLock(3)));
+        locks.unlock(3, twin);
+        check("unlock frees a pair on one stripe",
+                available(locks.writeLock(3)));
+
+        locks.lock(9, 4);
+        check("lock takes both inodes", !available(locks.writeLock(4))
+                && !available(locks.writeLock(9)));
+        locks.unlock(9, 4);
+        check("unlock frees both inodes", available(locks.writeLock(4))
+                && available(locks.writeLock(9)));
+
+        Thread forward = pairTaker(locks, 4, 9);
+        Thread backward = pairTaker(locks, 9, 4);
+        forward.start();
+        backward.start();
+        try {
+            forward.join(10000);
+            backward.join(10000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        check("opposite orders do not deadlock",
+                !forward.isAlive() && !backward.isAlive());
+    } // pairs()
+
+    /** Makes a thread that takes and releases a pair of inodes ROUNDS
+     * times.
+     * @param locks the locks.
+     * @param a the inode to name first.
+     * @param b the other.
+     * @return the thread, not yet started.
+     */
+    private static Thread pairTaker(final InodeLocks locks, final int a,
+            final int b)
+    {
+        return new Thread() {
+            public void run() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    locks.lock(a, b);
+                    locks.unlock(a, b);
+                }
+            }
+        };
+    } // pairTaker(InodeLocks, int, int)
+
+    /** Finds out whether another thread could take a lock now.
+     * @param lock the lock.
+     * @return true if another thread could take it.
+     */
+    private static boolean available(final Lock lock) {
+        final boolean got[] = new boolean[1];
+        Thread t = new Thread() {
+            public void run() {
+                got[0] = lock.tryLock();
+                if (got[0]) {
+                    lock.unlock();
+                }
+            }
+        };
+        t.start();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return got[0];
+    } // available(Lock)
+} // InodeLocksTester
@@ -8,8 +8,11 @@ package minikernel;
 /* $Id: Kernel.java.src,v 1.4 2007/04/25 14:20:12 solomon Exp $ */
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import java.io.*;
-import java.lang.reflect.*;
+import java.lang.invoke.*;
 import static java.lang.System.*;
 
 /** A simple kernel simulation.
@@ -41,7 +44,12 @@ public class Kernel {
     public static final int INTERRUPT_USER = 0;
 
     /** An interrupt kind indicating that a disk caused the interrupt.
-     * All other parameters will be null or zero.
+     * <ul>
+     * <li><b>Parameter i1</b> -- the number of operations that completed.
+     * </ul>
+     * All other parameters will be null or zero.  The kernel passes it on to
+     * the DiskQueue in front of the disk, which completes the operations that
+     * just finished and starts the next batch.
      */
     public static final int INTERRUPT_DISK = 1;
 
@@ -51,18 +59,46 @@ public class Kernel {
     * <ul>
     * <li><b>Parameter i1</b> --  the number of blocks to use in the
     * disk cache.
+    * <li><b>Parameter i2</b> -- how to run processes, LAUNCH_THREADS,
+    * LAUNCH_VIRTUAL or LAUNCH_POOLED.
     * <li><b>Parameter o1</b> -- an instance of Disk to use as the disk.
     * <li><b>Parameter o2</b> -- a String containing the name of the shell.
     * </ul>
     */
     public static final int INTERRUPT_POWER_ON = 2;
 
+    //////////////// Values for the third parameter ("i2") for POWER_ON
+
+    /** Run each process in a thread of its own, created when it starts. */
+    public static final int LAUNCH_THREADS = 0;
+
+    /** Run each process as a virtual thread, which waits for input or for
+     * the disk without tying up a thread of the operating system, so that
+     * tens of thousands of processes can run at once.  Where the Java
+     * runtime has no virtual threads, processes are run by a pool of
+     * threads instead.
+     */
+    public static final int LAUNCH_VIRTUAL = 1;
+
+    /** Run processes in a pool of threads, WARM_WORKERS of which are started
+     * at power on and wait for work, so that starting a process does not
+     * start a thread.
+     */
+    public static final int LAUNCH_POOLED = 2;
+
     //////////////// Values for the second parameter ("i1") for USER interrupts
 
     /** System call to output text on the console.
+     * Output is buffered, and appears when a newline is written, when the
+     * buffer fills, or on SYSCALL_FLUSH.
      * <ul>
-     * <li><b>Parameter o1</b>  -- A string to display
-     * <li><b>Returns</b> -- zero.
+     * <li><b>Parameter o1</b>  -- A string to display, or null to display
+     * bytes from a.
+     * <li><b>Parameter a</b>  -- Bytes to display, if o1 is null.
+     * <li><b>Parameter i2</b>  -- Where in a the bytes start.
+     * <li><b>Parameter o2</b>  -- An Integer, the number of bytes to display,
+     * or null for the rest of a.
+     * <li><b>Returns</b> -- zero, or ERROR_OUT_OF_RANGE.
      * </ul>
      */
     public static final int SYSCALL_OUTPUT = 0;
@@ -113,11 +149,31 @@ public class Kernel {
     
     /**
      * System call to read the contents of a file.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the name of the file.
+     * <li><b>Parameter a</b> -- the destination for the data, which is read
+     * from the start of the file.
+     * <li><b>Parameter i2</b> -- where in a to put the first byte.
+     * <li><b>Parameter o2</b> -- an Integer, the most bytes to read, or null
+     * to fill the rest of a.
+     * <li><b>Returns</b> -- the number of bytes read, or ERROR_NO_SUCH_FILE,
+     * ERROR_NOT_ORDINARY_FILE or ERROR_OUT_OF_RANGE.
+     * </ul>
      */
     public static final int SYSCALL_READ = 6;
     
     /**
-     * System call to write to the disk.
+     * System call to replace the contents of a file.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the name of the file.
+     * <li><b>Parameter a</b> -- the new contents.
+     * <li><b>Parameter i2</b> -- where in a the data starts.
+     * <li><b>Parameter o2</b> -- an Integer, the number of bytes to write, or
+     * null to write the rest of a.
+     * <li><b>Returns</b> -- the number of bytes written, which is less than
+     * requested only if the disk is full, or ERROR_NO_SUCH_FILE,
+     * ERROR_NOT_ORDINARY_FILE or ERROR_OUT_OF_RANGE.
+     * </ul>
      */
     public static final int SYSCALL_WRITE = 7;
     
@@ -127,7 +183,22 @@ public class Kernel {
     public static final int SYSCALL_DELETE = 8;
     
     /**
-     * System call to display contents of the current directory.
+     * System call to read the entries of a directory.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the name of the directory.
+     * <li><b>Parameter i2</b> -- the number of entries to skip.
+     * <li><b>Parameter a</b> -- the destination for the entries.  Each is
+     * READDIR_ENTRY_SIZE bytes: the inode number in bytes 0-1, the type of
+     * file in byte 2, and the name, padded with null bytes, in bytes 3-15.
+     * As many entries are stored as fit; the rest of a is cleared.
+     * <li><b>Returns</b> -- the number of entries stored, or -1 if there
+     * is no such directory.
+     * </ul>
+     * A directory with more entries than fit in a is read by calling again
+     * with i2 increased by the number returned, until that is less than
+     * will fit.  Entries added or removed between calls may be missed or
+     * seen twice.  Since an entry has room for READDIR_NAME_SIZE bytes of
+     * name, no file may be given a longer name.
      */
     public static final int SYSCALL_READDIR = 9;
     
@@ -140,6 +211,167 @@ public class Kernel {
     
     //************End code added by Brett Duncan*****************//
 
+    /** System call to open a file.
+     * The name is looked up once; later calls refer to the file by the
+     * returned file descriptor.  The file starts out positioned at its
+     * beginning.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the name of the file.
+     * <li><b>Returns</b> -- a non-negative file descriptor, or
+     * ERROR_NO_SUCH_FILE, ERROR_NOT_ORDINARY_FILE or ERROR_TOO_MANY_FILES.
+     * </ul>
+     */
+    public static final int SYSCALL_OPEN = 12;
+
+    /** System call to close a file descriptor.
+     * <ul>
+     * <li><b>Parameter i2</b> -- the file descriptor.
+     * <li><b>Returns</b> -- zero or ERROR_BAD_ARGUMENT.
+     * </ul>
+     */
+    public static final int SYSCALL_CLOSE = 13;
+
+    /** System call to move the position of an open file.
+     * <ul>
+     * <li><b>Parameter i2</b> -- the file descriptor.
+     * <li><b>Parameter o1</b> -- an Integer offset.
+     * <li><b>Parameter o2</b> -- an Integer saying what the offset is
+     * relative to: SEEK_SET, SEEK_CUR or SEEK_END.
+     * <li><b>Returns</b> -- the new position, or ERROR_BAD_ARGUMENT or
+     * ERROR_OUT_OF_RANGE.
+     * </ul>
+     */
+    public static final int SYSCALL_SEEK = 14;
+
+    /** System call to read from an open file at its current position.
+     * <ul>
+     * <li><b>Parameter i2</b> -- the file descriptor.
+     * <li><b>Parameter a</b> -- the destination for the data.
+     * <li><b>Parameter o1</b> -- an Integer, where in a to put the first
+     * byte, or null for 0.
+     * <li><b>Parameter o2</b> -- an Integer, the most bytes to read, or null
+     * to fill the rest of a.
+     * <li><b>Returns</b> -- the number of bytes read, which is zero at the
+     * end of the file, or ERROR_BAD_ARGUMENT or ERROR_OUT_OF_RANGE.
+     * </ul>
+     */
+    public static final int SYSCALL_READ_FD = 15;
+
+    /** System call to write to an open file at its current position.
+     * <ul>
+     * <li><b>Parameter i2</b> -- the file descriptor.
+     * <li><b>Parameter a</b> -- the data to write.
+     * <li><b>Parameter o1</b> -- an Integer, where in a the data starts, or
+     * null for 0.
+     * <li><b>Parameter o2</b> -- an Integer, the number of bytes to write, or
+     * null to write the rest of a.
+     * <li><b>Returns</b> -- the number of bytes written, which is less than
+     * requested only if the disk is full, or ERROR_BAD_ARGUMENT or
+     * ERROR_OUT_OF_RANGE.
+     * </ul>
+     */
+    public static final int SYSCALL_WRITE_FD = 16;
+
+    /** System call to send any buffered console output to the console.
+     * <ul>
+     * <li><b>Returns</b> -- zero.
+     * </ul>
+     */
+    public static final int SYSCALL_FLUSH = 17;
+
+    /** System call to create an empty directory.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the name of the new directory.
+     * <li><b>Returns</b> -- zero, or -1 if there was an error.
+     * </ul>
+     */
+    public static final int SYSCALL_MKDIR = 18;
+
+    /** System call to remove an empty directory.
+     * A directory that is some process's working directory cannot be
+     * removed.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the name of the directory.
+     * <li><b>Returns</b> -- zero, or -1 if there was an error.
+     * </ul>
+     */
+    public static final int SYSCALL_RMDIR = 19;
+
+    /** System call to change the working directory of the calling process,
+     * from which relative pathnames are resolved.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the name of the directory.
+     * <li><b>Returns</b> -- zero, or -1 if there is no such directory.
+     * </ul>
+     */
+    public static final int SYSCALL_CHDIR = 20;
+
+    /** System call to create a symbolic link.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the target of the link, which need not
+     * exist.
+     * <li><b>Parameter o2</b> -- the name of the new link.
+     * <li><b>Returns</b> -- zero, or -1 if there was an error.
+     * </ul>
+     */
+    public static final int SYSCALL_SYMLINK = 21;
+
+    /** System call to read the target of a symbolic link.
+     * <ul>
+     * <li><b>Parameter o1</b> -- the name of the link.
+     * <li><b>Parameter a</b> -- the destination for the target, which is
+     * truncated to fit.  The rest of a is cleared.
+     * <li><b>Returns</b> -- zero, or -1 if o1 is not a symbolic link.
+     * </ul>
+     */
+    public static final int SYSCALL_READLINK = 22;
+
+    /** System call to change the scheduling priority of the calling
+     * process, which processes it starts inherit.  Only the PRIORITY and
+     * CFS policies of CpuScheduler look at it.
+     * <ul>
+     * <li><b>Parameter i2</b> -- the new nice value, from MIN_NICE, the most
+     * favored, to MAX_NICE.
+     * <li><b>Returns</b> -- zero, or ERROR_OUT_OF_RANGE.
+     * </ul>
+     * Since nice values below zero are legal, the old value is not returned
+     * here, where it could not be told apart from an error code; use
+     * SYSCALL_GETNICE to read it first.
+     */
+    public static final int SYSCALL_NICE = 23;
+
+    /** System call to get the nice value of the calling process.
+     * <ul>
+     * <li><b>Returns</b> -- the nice value, from MIN_NICE to MAX_NICE.
+     * </ul>
+     */
+    public static final int SYSCALL_GETNICE = 24;
+
+    /** The lowest nice value, which gets the most CPU time. */
+    public static final int MIN_NICE = -20;
+
+    /** The highest nice value, which gets the least CPU time. */
+    public static final int MAX_NICE = 19;
+
+    /** The size of one directory entry as returned by SYSCALL_READDIR. */
+    public static final int READDIR_ENTRY_SIZE = 16;
+
+    /** The longest name a file may have: the room for it in an entry
+     * returned by SYSCALL_READDIR.
+     */
+    public static final int READDIR_NAME_SIZE = READDIR_ENTRY_SIZE - 3;
+
+    //////////////// Values for the "whence" parameter of SYSCALL_SEEK
+
+    /** The offset is from the start of the file. */
+    public static final int SEEK_SET = 0;
+
+    /** The offset is from the current position. */
+    public static final int SEEK_CUR = 1;
+
+    /** The offset is from the end of the file. */
+    public static final int SEEK_END = 2;
+
     //////////////// Error codes returned by interrupt()
 
     /** An error code indicating that one of the system call parameters made no
@@ -183,12 +415,59 @@ public class Kernel {
      */
     public static final int ERROR_NO_SUCH_PROCESS = -9;
 
+    /** An error code indicating that a file named in a system call does not
+     * exist.
+     */
+    public static final int ERROR_NO_SUCH_FILE = -10;
+
+    /** An error code indicating that a process already has MAX_OPEN_FILES
+     * files open.
+     */
+    public static final int ERROR_TOO_MANY_FILES = -11;
+
+    /** An error code indicating that a file named in a system call is a
+     * directory or symlink where an ordinary file is needed.
+     */
+    public static final int ERROR_NOT_ORDINARY_FILE = -12;
+
+    /** The number of files a process may have open at once. */
+    public static final int MAX_OPEN_FILES = 16;
+
+    /** How often, in milliseconds, everything written to the disk is saved
+     * to the DISK file while the system is running.
+     */
+    public static final int CHECKPOINT_INTERVAL = 5000;
+
+    /** How often, in milliseconds, the buffer cache is checked for blocks
+     * that have been dirty too long.
+     */
+    public static final int FLUSH_INTERVAL = 500;
+
+    /** The longest, in milliseconds, a modified block is kept in the buffer
+     * cache before it is written to the disk.
+     */
+    public static final int MAX_DIRTY_AGE = 2000;
+
+    /** The policy used to order requests for a slow Disk, one of
+     * DiskScheduler.POLICIES.
+     */
+    public static final String DISK_SCHEDULER = "LOOK";
+
     //////////////// Transient state of the kernel
 
     /** The disk to be used */
 //    private static Disk disk;
-    private static FastDisk disk;
+    private static BlockDevice disk;
+
+    /** The request queue in front of the disk, if it is a slow Disk rather
+     * than a FastDisk.
+     */
+    private static DiskQueue diskQueue;
 
+    /** The CPUs processes must be given before they run, or null to let
+     * every process run whenever the Java runtime lets it.
+     */
+    private static Dispatcher dispatcher;
 
     /** The file system. */
     private static FileSys filesys;
@@ -196,6 +475,36 @@ public class Kernel {
     /** The size of the disk cache */
     private static int cacheSize;
 
+    /** The thread that writes back dirty blocks and saves the disk every
+     * CHECKPOINT_INTERVAL.
+     */
+    private static Flusher flusher;
+
+    /** The state of each process.  A process is identified by the thread
+     * running it, and its state is dropped when it ends or, for a thread
+     * the Kernel did not start, when the thread is gone.  Guarded by its own
+     * monitor.
+     */
+    private static final Map<Thread,ProcessState> processes
+        = new WeakHashMap<Thread,ProcessState>();
+
+    /** The state of the calling process, once it has been looked up. */
+    private static final ThreadLocal<ProcessState> currentProcess
+        = new ThreadLocal<ProcessState>();
+
+    /** Held shared by every system call that uses the file system, and
+     * exclusively by format and shutdown, which pull everything out from
+     * under the others.  Within the file system, processes exclude each
+     * other only through the locks of the inodes they use.
+     *
+     * @see InodeLocks
+     */
+    private static final ReentrantReadWriteLock formatLock
+        = new ReentrantReadWriteLock();
+
+    /** The console output driver. */
+    private static final Console console = new Console(out);
+
     //////////////// Methods
 
     /** This is the only entry into the kernel.
@@ -219,6 +528,7 @@ public class Kernel {
     * <tt>INTERRUPT_POWER_ON</tt>, o1 will point to the Disk to be
     * used, o2 will be a String containing the name of the shell to use,
     * i1 will indicate the size of the buffer cache,
+    * i2 will say how processes are to be run,
     * and all other parameters will be zero or null.
     * <p>
     * Since different system calls require different parameters, this
@@ -243,11 +553,25 @@ public class Kernel {
     public static int interrupt(int kind, int i1, int i2,
             Object o1, Object o2, byte a[])
     {
+        if (kind == INTERRUPT_USER && dispatcher != null) {
+            // Preempt before taking any lock.
+            Dispatcher.Task task = process().task;
+            if (task != null) {
+                dispatcher.preemptionPoint(task);
+            }
+        }
+        Lock lock = fileSystemLock(kind, i1);
+        if (lock != null) {
+            lock.lock();
+        }
         try {
             switch (kind) {
             case INTERRUPT_USER:
                 switch (i1) {
                 case SYSCALL_OUTPUT:
+                    if (o1 == null) {
+                        return doOutput(a, i2, (Integer)o2);
+                    }
                     return doOutput((String)o1);
 
                 case SYSCALL_INPUT:
@@ -266,19 +590,19 @@ public class Kernel {
                     return doFormat();
                     
                 case SYSCALL_CREATE:
-                    return doCreateFile(a);
+                    return doCreateFile((String) o1);
                     
                 case SYSCALL_READ:
-                    return doRead(a);
+                    return doRead((String) o1, a, i2, (Integer) o2);
                     
                 case SYSCALL_WRITE:
-                    return doWrite(((String) o1).getBytes(), a);
+                    return doWrite((String) o1, a, i2, (Integer) o2);
                     
                 case SYSCALL_DELETE:
-                    return doDelete(((String) o1).getBytes());
+                    return doDelete((String) o1);
                     
                 case SYSCALL_READDIR:
-                    return doReadDir();
+                    return doReadDir((String) o1, i2, a);
                     
                 case SYSCALL_SHUTDOWN:
                     doShutdown();
@@ -289,15 +613,58 @@ public class Kernel {
                     
                 //************End code added by Brett Duncan*********************//
 
+                case SYSCALL_OPEN:
+                    return doOpen((String) o1);
+
+                case SYSCALL_CLOSE:
+                    return doClose(i2);
+
+                case SYSCALL_SEEK:
+                    return doSeek(i2, (Integer) o1, (Integer) o2);
+
+                case SYSCALL_READ_FD:
+                    return doReadFd(i2, a, (Integer) o1, (Integer) o2);
+
+                case SYSCALL_WRITE_FD:
+                    return doWriteFd(i2, a, (Integer) o1, (Integer) o2);
+
+                case SYSCALL_FLUSH:
+                    console.flush();
+                    break;
+
+                case SYSCALL_MKDIR:
+                    return doMkdir((String) o1);
+
+                case SYSCALL_RMDIR:
+                    return doRmdir((String) o1);
+
+                case SYSCALL_CHDIR:
+                    return doChdir((String) o1);
+
+                case SYSCALL_SYMLINK:
+                    return doSymlink((String) o1, (String) o2);
+
+                case SYSCALL_READLINK:
+                    return doReadlink((String) o1, a);
+
+                case SYSCALL_NICE:
+                    return doNice(i2);
+
+                case SYSCALL_GETNICE:
+                    return process().nice;
+
                 default:
                     return ERROR_BAD_ARGUMENT;
                 }
 
             case INTERRUPT_DISK:
+                if (diskQueue != null) {
+                    diskQueue.interrupt(i1);
+                }
                 break;
 
             case INTERRUPT_POWER_ON:
-                doPowerOn(i1, o1, o2);
+                doPowerOn(i1, i2, o1, o2);
 //                doShutdown();
                 break;
 
@@ -308,58 +675,137 @@ public class Kernel {
             // Most likely, we arrived here due to a bad cast. 
             e.printStackTrace();
             return ERROR_BAD_ARGUMENT;
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
         }
         return 0;
     } // interrupt(int, int, int, Object, Object, byte[])
 
+    /** Chooses the side of formatLock a system call must hold.
+     * @param kind the kind of interrupt.
+     * @param call the system call number, if kind is INTERRUPT_USER.
+     * @return the write lock for format and shutdown, the read lock for
+     * other calls that use the file system, or null.
+     */
+    private static Lock fileSystemLock(int kind, int call) {
+        if (kind != INTERRUPT_USER) {
+            return null;
+        }
+        switch (call) {
+        case SYSCALL_FORMAT:
+        case SYSCALL_SHUTDOWN:
+            return formatLock.writeLock();
+        case SYSCALL_CREATE:
+        case SYSCALL_READ:
+        case SYSCALL_WRITE:
+        case SYSCALL_DELETE:
+        case SYSCALL_READDIR:
+        case SYSCALL_OPEN:
+        case SYSCALL_CLOSE:
+        case SYSCALL_SEEK:
+        case SYSCALL_READ_FD:
+        case SYSCALL_WRITE_FD:
+        case SYSCALL_MKDIR:
+        case SYSCALL_RMDIR:
+        case SYSCALL_CHDIR:
+        case SYSCALL_SYMLINK:
+        case SYSCALL_READLINK:
+            return formatLock.readLock();
+        default:
+            return null;
+        }
+    } // fileSystemLock(int, int)
+
     /** Performs the actions associated with a POWER_ON interrupt.
      * @param i1 the first int parameter to the interrupt (the disk cache size)
+     * @param i2 the second int parameter to the interrupt (the launch mode).
      * @param o1 the first Object parameter to the interrupt (the Disk).
      * @param o2 the second Object parameter to the interrupt (the shell
      * command-line).
      */
-    private static void doPowerOn(int i1, Object o1, Object o2) {
+    private static void doPowerOn(int i1, int i2, Object o1, Object o2) {
         cacheSize = i1;
         
         //************Code added by Brett Duncan*********************//
 //        disk = (Disk)o1;
-        disk = (FastDisk)o1;
+        //A slow Disk can only do one thing at a time, so put a queue in
+        //front of it.
+        if (o1 instanceof FastDisk) {
+            disk = (FastDisk)o1;
+        } else {
+            Disk slowDisk = (Disk)o1;
+            diskQueue = new DiskQueue(slowDisk,
+                    DiskScheduler.create(DISK_SCHEDULER, slowDisk.DISK_SIZE));
+            disk = diskQueue;
+        }
         //Create new file system object, which makes managing the file system
         //easier.
-        filesys = new FileSys(disk);
+        filesys = new FileSys(disk, cacheSize);
         //************End code added by Brett Duncan*********************//
         
         String shellCommand = (String) o2;
 
         doOutput("Kernel: Disk is " + filesys.getBlockSizeOfDisk() + " blocks\n");
         doOutput("Kernel: Disk cache size is " + i1 + " blocks\n");
-        
-        //Commented this out because we're just gonna use the default shell
-        //in FileTester.java.
-        /*doOutput("Kernel: Loading initial program.\n");
 
-        StringTokenizer st = new StringTokenizer(shellCommand);
-        int n = st.countTokens();
-        if (n < 1) {
-            doOutput("Kernel: No shell specified\n");
-            exit(1);
-        }
-            
-        String shellName = st.nextToken();
-        String[] args = new String[n - 1];
-        for (int i = 1; i < n; i++) {
-            args[i - 1] = st.nextToken();
+        flusher = new Flusher();
+        flusher.start();
+
+        if (i2 == LAUNCH_VIRTUAL) {
+            doOutput("Kernel: Running processes as "
+                    + Launcher.useVirtualThreads() + "\n");
+        } else if (i2 == LAUNCH_POOLED) {
+            doOutput("Kernel: Running processes in "
+                    + Launcher.usePool() + "\n");
         }
+        
+        //FileTester powers on the kernel itself and passes no shell.
+        if (shellCommand != null) {
+            doOutput("Kernel: Loading initial program.\n");
+
+            StringTokenizer st = new StringTokenizer(shellCommand);
+            int n = st.countTokens();
+            if (n < 1) {
+                doOutput("Kernel: No shell specified\n");
+                exit(1);
+            }
 
-        if (doExecAndWait(shellName, args) < 0) {
-            doOutput("Kernel: Unable to start " + shellCommand + "!\n");
-            exit(1);
-        } else {
-            doOutput("Kernel: " + shellCommand + " has terminated.\n");
+            String shellName = st.nextToken();
+            String[] args = new String[n - 1];
+            for (int i = 1; i < n; i++) {
+                args[i - 1] = st.nextToken();
+            }
+
+            if (doExecAndWait(shellName, args) < 0) {
+                doOutput("Kernel: Unable to start " + shellCommand + "!\n");
+                exit(1);
+            } else {
+                doOutput("Kernel: " + shellCommand + " has terminated.\n");
+            }
         }
-        */
         Launcher.joinAll();
-    } // doPowerOn(int, Object, Object)
+        if (dispatcher != null) {
+            doOutput(dispatcher.report());
+        }
+    } // doPowerOn(int, int, Object, Object)
+
+    /** Sets the queue that receives disk interrupts.
+     * Used by DiskBenchmark, which drives a Disk without powering on.
+     * @param queue the queue in front of the disk.
+     */
+    static void setDiskQueue(DiskQueue queue) {
+        diskQueue = queue;
+    } // setDiskQueue(DiskQueue)
+
+    /** Makes processes share a set of simulated CPUs.
+     * Used by Boot, before power on, when a CPU scheduler is chosen.
+     * @param cpus the CPUs and the policy for sharing them.
+     */
+    static void setDispatcher(Dispatcher cpus) {
+        dispatcher = cpus;
+    } // setDispatcher(Dispatcher)
 
     /** Does any "shutdown" activities required after all activities started by
      * a POWER_ON interrupt have completed.
@@ -367,37 +813,112 @@ public class Kernel {
     private static void doShutdown() {
         
 //        disk.flush();
+        flusher.halt();
+        filesys.unmount();
+        BufferCache cache = filesys.getCache();
+        doOutput("Kernel: Buffer cache: " + cache.getHitCount() + " hits, "
+                + cache.getMissCount() + " misses, "
+                + cache.getWriteBackCount() + " blocks written back in "
+                + cache.getGroupCount() + " groups, "
+                + cache.getAbsorbedCount() + " writes absorbed\n");
+        doOutput("Kernel: Read-ahead: " + cache.getPrefetchCount()
+                + " blocks prefetched, " + cache.getPrefetchUsedCount()
+                + " used, " + cache.getPrefetchWastedCount() + " wasted\n");
+        DentryCache dentries = filesys.getDentryCache();
+        doOutput("Kernel: Name cache: " + dentries.getHitCount() + " hits ("
+                + dentries.getNegativeCount() + " negative), "
+                + dentries.getMissCount() + " misses\n");
+        doOutput("Kernel: Console: " + console.getByteCount() + " bytes in "
+                + console.getWriteCount() + " writes\n");
+        console.flush();
         //************Code added by Brett Duncan*********************//
         //XXX: Shutdown method
         filesys.getDisk().flush();
         //************End code added by Brett Duncan*********************//
     } // doShutdown()
 
+    /** Saves everything written so far to the DISK file, without shutting
+     * down.  Only the blocks modified since the last checkpoint are written.
+     * The caller must hold the read side of formatLock.
+     */
+    private static void doCheckpoint() {
+        filesys.checkpoint();
+    } // doCheckpoint()
+
+    /** Writes the blocks in the buffer cache to the disk, in block order and
+     * as one operation, if any of them has been modified for MAX_DIRTY_AGE.
+     * The caller must hold the read side of formatLock.
+     */
+    private static void doWriteBehind() {
+        filesys.writeBehind(MAX_DIRTY_AGE);
+    } // doWriteBehind()
+
     /** Displays a message on the console.
      * @param msg the message to display
      */
     private static int doOutput(String msg) {
-        out.print(msg);
+        console.write(msg);
         return 0;
     } // doOutput(String)
 
+    /** Prints part of an array of bytes on the console.
+     * @param bytes the bytes to print.
+     * @param offset where in bytes to start.
+     * @param length the number of bytes, or null for the rest of the array.
+     * @return zero, or ERROR_OUT_OF_RANGE if the bytes are not in the array.
+     */
+    private static int doOutput(byte bytes[], int offset, Integer length) {
+        if (bytes == null || !inRange(bytes, offset, length)) {
+            return ERROR_OUT_OF_RANGE;
+        }
+        console.write(bytes, offset,
+                length == null ? bytes.length - offset : length);
+        return 0;
+    } // doOutput(byte[], int, Integer)
+
     private static BufferedReader br
         = new BufferedReader(new InputStreamReader(in));
 
+    /** The one thread that reads the console.  A process waiting for input
+     * waits for this thread to hand it a line, so a process run as a
+     * virtual thread gives up its carrier thread while it waits.
+     */
+    private static final ExecutorService keyboard
+        = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Keyboard");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
     /** Reads a line from the console into a StringBuffer.
      * @param sb a place to put the line of input.
      */
     private static int doInput(StringBuffer sb) {
+        //Show any prompt before waiting.
+        console.flush();
+        Future<String> line = keyboard.submit(new Callable<String>() {
+            public String call() throws IOException {
+                return br.readLine();
+            }
+        });
+        Dispatcher.Task task = offCpu();
         try {
-            String s = br.readLine();
+            String s = line.get();
             if (s==null) {
                 return ERROR_END_OF_FILE;
             }
             sb.append(s);
             return 0;
-        } catch (IOException t) {
-            t.printStackTrace();
+        } catch (ExecutionException t) {
+            t.getCause().printStackTrace();
+            return ERROR_IO;
+        } catch (InterruptedException t) {
+            Thread.currentThread().interrupt();
             return ERROR_IO;
+        } finally {
+            onCpu(task);
         }
     } // doInput(StringBuffer)
 
@@ -441,7 +962,9 @@ public class Kernel {
     private static int doExec(String command, String args[]) {
         try {
             Launcher l = new Launcher(command, args);
-            l.start();
+            if (!l.start()) {
+                return ERROR_BAD_COMMAND;
+            }
             return l.pid;
         } catch (ClassNotFoundException e) {
             return ERROR_NO_CLASS;
@@ -458,8 +981,50 @@ public class Kernel {
      * @return the return code returned by the program.
      */
     private static int doJoin(int pid) {
-        return Launcher.joinOne(pid);
+        Dispatcher.Task task = offCpu();
+        try {
+            return Launcher.joinOne(pid);
+        } finally {
+            onCpu(task);
+        }
     } // doJoin(int)
+
+    /** Changes the nice value of the calling process.
+     * @param nice the new value.
+     * @return zero, or ERROR_OUT_OF_RANGE.
+     */
+    private static int doNice(int nice) {
+        if (nice < MIN_NICE || nice > MAX_NICE) {
+            return ERROR_OUT_OF_RANGE;
+        }
+        ProcessState p = process();
+        p.nice = nice;
+        if (p.task != null) {
+            dispatcher.setNice(p.task, nice);
+        }
+        return 0;
+    } // doNice(int)
+
+    /** Gives up the calling process's CPU, if it has one, before it waits
+     * for something else.
+     * @return the process's scheduling state, or null.
+     */
+    private static Dispatcher.Task offCpu() {
+        Dispatcher.Task task = process().task;
+        if (task != null) {
+            dispatcher.block(task);
+        }
+        return task;
+    } // offCpu()
+
+    /** Waits for the calling process to get a CPU back after offCpu().
+     * @param task what offCpu() returned.
+     */
+    private static void onCpu(Dispatcher.Task task) {
+        if (task != null) {
+            dispatcher.unblock(task);
+        }
+    } // onCpu(Dispatcher.Task)
     
     //************Code added by Brett Duncan*********************//
     //XXX: New doXXX methods
@@ -469,6 +1034,10 @@ public class Kernel {
      * @return The block size, in bytes, of the disk.
      */
     private static int doGetBlockSize() {
+        if (filesys == null) {
+            //Not powered on yet.
+            return ERROR_BAD_ARGUMENT;
+        }
         return filesys.getBlockSizeOfDisk();
     }
     
@@ -482,7 +1051,15 @@ public class Kernel {
         //Create new file system object.
 //        filesys = new FileSys(new FastDisk(100));
         
-        filesys.getDisk().format();
+        filesys.format();
+        
+        //Open files and working directories refer to the old contents.
+        synchronized (processes) {
+            for (ProcessState p : processes.values()) {
+                Arrays.fill(p.files, null);
+                p.cwd = FileSys.ROOT_INODE;
+            }
+        }
         
         doOutput("Kernel: Disk formatted.\n");
         
@@ -490,256 +1067,781 @@ public class Kernel {
     }
     
     /**
-     * Creates a new file with the indicated filename. The initial contents of
-     * the file are all null (zero) bytes. 
-     * @param pathName The bytes containing the file name.
+     * Creates a new file with the indicated filename. The new file is
+     * empty.
+     * @param pathName The file name.
      * @return 0 if successful, -1 if there was an error.
      */
-    private static int doCreateFile(byte pathName[]) {
+    private static int doCreateFile(String pathName) {
         
-        //Check if file name length is > 32.
-        if (pathName.length > 32) {
-            doOutput("Kernel: User error: File name too long!\n");
+        //Get an inode for the file and enter it in its directory.  Its data
+        //blocks are allocated later, as the file is written.
+        Inode inode = createEntry(pathName, Inode.ORDINARY, null);
+        if (inode == null) {
             return -1;
         }
         
-        //A 1 block byte array that will hold the free map
-        byte freeMap[] = new byte[filesys.getBlockSizeOfDisk()];
-        
-        //Read block 0 into freeMap
-        filesys.getDisk().read(0, freeMap);
-        
-        //Check if the file specified by pathName already exists.
-        String pathNameString = new String(pathName);
-        for (int i = 1; i < 100; i++) {
-            if (freeMap[i] == '1'
-                && pathNameString.equals(filesys.getFileTable()[i].trim())) {
-
-                doOutput("Kernel: User error: File name already exists at"
-                        + "block " + i + "!\n");
-                return -1;
-            }
-        }
-        
-        //The target block to create the file to.
-        int targetBlock = 1;
-        //Search freeMap for the next 0, which will be the target block.
-        for (int i = 1; i < filesys.getDisk().DISK_SIZE; i++) {
-            if (freeMap[i] == '0') {
-                targetBlock = i;
-                break;
-            }
-        }
-        
-        //Byte array that will hold the path name and file contents.
-        byte pathAndContents[] = new byte[filesys.getBlockSizeOfDisk()];
-        //Copy path name to pathAndContents
-        arraycopy(pathName, 0, pathAndContents, 0, pathName.length);
-        
-        //Write path and contents to the target block.
-        filesys.getDisk().write(targetBlock, pathAndContents);
-        
-        //Update the free map at targetBlock indicating that block is occupied.
-        freeMap[targetBlock] = '1';
-        
-        //Write free map back to block 0 of the disk.
-        filesys.getDisk().write(0, freeMap);
-        
-        //Set the file system's fileTable at targetBlock to the file name so
-        //we can look it up and other methods can use it.
-        filesys.getFileTable()[targetBlock] = new String(pathName);
-        
         //Indicate that file was created successfully.
-        doOutput("Kernel: Created file ");
-        for (int i = 0; i < pathName.length; i++) {
-            doOutput((char) pathName[i] + "");
-        }
-        doOutput(" at block " + targetBlock + ". \n");
+        doOutput("Kernel: Created file " + pathName
+                + " as inode " + inode.getNumber() + ". \n");
         
         return 0;
     }
     
     /**
-     * Reads and displays the contents of the file specified by pathName[].
+     * Reads the file specified by pathName, from its beginning, into part of
+     * the caller's buffer.
      * @param pathName The file name to read the contents of.
-     * @return 0 if successful, -1 if there was an error.
+     * @param buffer The destination for the data.
+     * @param offset Where in buffer to put the first byte.
+     * @param length The most bytes to read, or null to fill the rest of
+     * buffer.
+     * @return The number of bytes read, which is less than length if the
+     * file is shorter, ERROR_NO_SUCH_FILE if the file does not exist,
+     * ERROR_NOT_ORDINARY_FILE if it is a directory or symlink, or
+     * ERROR_OUT_OF_RANGE if offset and length do not fit in buffer.
      */
-    private static int doRead(byte pathName[]) {
-        
-        //Buffer holding the data read from a block.
-        byte tempBuffer[] = new byte[FastDisk.BLOCK_SIZE];
+    private static int doRead(String pathName, byte buffer[],
+            int offset, Integer length) {
         
-        int targetBlock = findTargetBlock(pathName);
+        if (buffer == null || !inRange(buffer, offset, length)) {
+            return ERROR_OUT_OF_RANGE;
+        }
+        int targetInode = findTargetInode(pathName);
         
-        if (targetBlock == -1) {
+        if (targetInode == -1) {
             doOutput("Kernel: User error: File not found.\n");
-            return -1;
+            return ERROR_NO_SUCH_FILE;
         }
         
-        filesys.getDisk().read(targetBlock, tempBuffer);
-        
-        doOutput("Kernel: File name: ");
-        for (int i = 0; i < 32; i++) {
-            doOutput((char) tempBuffer[i] + "");
-        }
-        doOutput(" at block " + targetBlock + ". ");
-        doOutput("Contents: \n");
-        for (int i = 32; i < 512; i++) {
-            doOutput((char) tempBuffer[i] + "");
+        Lock lock = filesys.getLocks().readLock(targetInode);
+        lock.lock();
+        try {
+            Inode inode = filesys.readInode(targetInode);
+            if (inode.getType() != Inode.ORDINARY) {
+                doOutput("Kernel: User error: Not an ordinary file.\n");
+                return ERROR_NOT_ORDINARY_FILE;
+            }
+            return filesys.readFile(inode, 0, buffer, offset,
+                    length == null ? buffer.length - offset : length);
+        } finally {
+            lock.unlock();
         }
-        doOutput("\n");
-        return 0;
     }
     
     /**
-     * Writes the contents of buffer[] into the file specified by pathName[].
+     * Writes part of the caller's buffer into the file specified by
+     * pathName, replacing what was there before.
      * @param pathName The file to write the buffer to.
      * @param buffer The contents to be written to the file.
-     * @return 0 if successful, -1 if there was an error.
+     * @param offset Where in buffer the data starts.
+     * @param length The number of bytes to write, or null to write the rest
+     * of buffer.
+     * @return The number of bytes written, which is less than length only if
+     * the disk is full, ERROR_NO_SUCH_FILE if the file does not exist,
+     * ERROR_NOT_ORDINARY_FILE if it is a directory or symlink, or
+     * ERROR_OUT_OF_RANGE if offset and length do not fit in buffer.
      */
-    private static int doWrite(byte pathName[], byte buffer[]) {
+    private static int doWrite(String pathName, byte buffer[],
+            int offset, Integer length) {
         
-        int targetBlock = findTargetBlock(pathName);
+        if (buffer == null || !inRange(buffer, offset, length)) {
+            return ERROR_OUT_OF_RANGE;
+        }
+        int targetInode = findTargetInode(pathName);
             
-        if (targetBlock == -1) {
+        if (targetInode == -1) {
             doOutput("Kernel: User error: File not found.\n");
-            return -1;
+            return ERROR_NO_SUCH_FILE;
         }
         
-        //The byte array that will hold the file name and buffer (contents to
-        //write). Do this because in FileTester, it strips off the file name.
-        byte fileNameAndBuffer[] = new byte[filesys.getBlockSizeOfDisk()];
-        
-        //Copy buffer (the contents to write) into fileNameAndBuffer, starting
-        //at position 32 because in FileTester, it strips off the file name.
-        arraycopy(buffer, 0,
-                  fileNameAndBuffer, 32,
-                  filesys.getBlockSizeOfDisk() - 32);
-        
-        //Add the file name to the beginning of fileNameAndBuffer.
-        System.arraycopy(pathName, 0,
-                         fileNameAndBuffer, 0,
-                         pathName.length);
-        
-        //Now we can write, keeping the file name at the beginning instead of
-        //it being overwritten by the contents.
-        filesys.getDisk().write(targetBlock, fileNameAndBuffer);
-        
-        return 0;
-    }
-    
-    /**
-     * Deletes a file from the disk, making the block occupied by the file null.
-     * @param pathName The file to be deleted.
-     * @return 0 if successful, -1 if there was an error.
-     */
-    private static int doDelete(byte pathName[]) {
-        //Find target block to delete.
-        int targetBlock = findTargetBlock(pathName);
-        
-        if (targetBlock == -1) {
-            doOutput("Kernel: User error: File not found.\n");
-            return -1;
+        int count = (length == null ? buffer.length - offset : length);
+        int written;
+        Lock lock = filesys.getLocks().writeLock(targetInode);
+        lock.lock();
+        try {
+            Inode inode = filesys.readInode(targetInode);
+            if (inode.getType() != Inode.ORDINARY) {
+                doOutput("Kernel: User error: Not an ordinary file.\n");
+                return ERROR_NOT_ORDINARY_FILE;
+            }
+            
+            //Write the data, allocating blocks as needed, then drop
+            //anything left over from longer contents.
+            written = filesys.writeFile(inode, 0, buffer, offset, count);
+            filesys.truncate(inode, written);
+        } finally {
+            lock.unlock();
         }
         
-        //Create a null byte array of size block size.
-        byte nullByteArray[] = new byte[filesys.getBlockSizeOfDisk()];
-        for (int i = 0; i < nullByteArray.length; i++) {
-            nullByteArray[i] = '\0';
+        if (written < count) {
+            doOutput("Kernel: User error: Disk is full!\n");
         }
         
-        //Write the null byte array to the disk at the target block.
-        filesys.getDisk().write(targetBlock, nullByteArray);
-        
-        //Set the file table at the targetBlock's index to 0, indicating the
-        //file was deleted.
-        filesys.getFileTable()[targetBlock] = null;
-        
-        //A 1 block byte array that will hold the free map
-        byte freeMap[] = new byte[filesys.getBlockSizeOfDisk()];
-        
-        //Read block 0 into freeMap
-        filesys.getDisk().read(0, freeMap);
-        
-        //Change the bit at the free map to 0, indicating the block is now free.
-        freeMap[targetBlock] = '0';
-        
-        //Write the updated freeMap back to block 0.
-        filesys.getDisk().write(0, freeMap);
-        
-        return 0;
-        
+        return written;
     }
     
     /**
-     * Displays the contents of the current directory.
+     * Deletes a file from the disk, freeing its inode and data blocks.
+     * @param pathName The file to be deleted.
      * @return 0 if successful, -1 if there was an error.
      */
-    private static int doReadDir() {
+    private static int doDelete(String pathName) {
+        int dir = filesys.lookupParent(cwd(), pathName);
+        String name = FileSys.baseName(pathName);
+        InodeLocks locks = filesys.getLocks();
         
-        doOutput("Kernel: ");
-        for (int i = 1; i < filesys.getFileTable().length; i++) {
-            
-            doOutput(
-                    filesys.getFileTable()[i] == null ?
-                    "" :
-                    /*"Block " + i + ": " +*/
-                    filesys.getFileTable()[i].trim() + " "
-                    );
+        for (;;) {
+            int targetInode = (dir == -1 ? -1 : filesys.lookup(dir, name));
+            if (targetInode == -1) {
+                doOutput("Kernel: User error: File not found.\n");
+                return -1;
+            }
             
+            //Lock the directory and the file, then make sure the name was
+            //not changed before we got them.
+            locks.lock(dir, targetInode);
+            try {
+                if (filesys.lookup(dir, name) != targetInode) {
+                    continue;
+                }
+                if (filesys.isDirectory(targetInode)) {
+                    doOutput("Kernel: User error: " + pathName
+                            + " is a directory.\n");
+                    return -1;
+                }
+                
+                //Remove the file's directory entry.
+                filesys.unlink(dir, name);
+                
+                //Give back the inode and its blocks, or, if the file is
+                //open, leave that to the last close.  The free map on disk
+                //is brought up to date by FileSys.sync().
+                filesys.release(filesys.readInode(targetInode));
+            } finally {
+                locks.unlock(dir, targetInode);
+            }
+            return 0;
         }
-        doOutput("\n");
         
-        return 0;
     }
     
     /**
-     * Helper method for finding the block indicated by pathName[].
-     * @param pathName The file name to find the block index of.
-     * @return 0 if successful, -1 if the file was not found.
+     * Copies the entries of a directory into buffer, in the format
+     * described at SYSCALL_READDIR.
+     * @param pathName The directory to read.
+     * @param start The number of entries to skip.
+     * @param buffer The destination for the entries.
+     * @return The number of entries copied, or -1 if there was an error.
      */
-    private static int findTargetBlock(byte pathName[]) {
+    private static int doReadDir(String pathName, int start, byte buffer[]) {
         
-        int targetBlock = -1;
+        int targetInode = findTargetInode(pathName);
+        if (targetInode == -1 || buffer == null || start < 0) {
+            doOutput("Kernel: User error: Directory not found.\n");
+            return -1;
+        }
         
-        String pathNameString = new String(pathName);
-        for (int i = 1; i < filesys.getDisk().DISK_SIZE; i++) {
-            
-            //Check if null so .trim() doesn't throw null pointer exception.
-            String fileTableString = 
-                    filesys.getFileTable()[i] == null ?
-                    "" :
-                    filesys.getFileTable()[i].trim();
+        Lock lock = filesys.getLocks().readLock(targetInode);
+        lock.lock();
+        try {
+            Directory dir = filesys.getDirectory(targetInode);
+            if (dir == null) {
+                doOutput("Kernel: User error: Directory not found.\n");
+                return -1;
+            }
             
-            if (pathNameString.equals(fileTableString)) {
-                targetBlock = i;
-                break;
+            Arrays.fill(buffer, (byte) 0);
+            List<String> names = dir.list();
+            int count = Math.max(0, Math.min(names.size() - start,
+                    buffer.length / READDIR_ENTRY_SIZE));
+            for (int i = 0; i < count; i++) {
+                String fileName = names.get(start + i);
+                int offset = i * READDIR_ENTRY_SIZE;
+                Inode.putShort(buffer, offset, dir.lookup(fileName));
+                buffer[offset + 2] = dir.getType(fileName);
+                byte name[] = fileName.getBytes();
+                System.arraycopy(name, 0, buffer, offset + 3,
+                        Math.min(name.length, READDIR_NAME_SIZE));
             }
+            return count;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * Helper method for finding the inode of the file named by pathName.
+     * @param pathName The file name to find the inode of, relative to the
+     * calling process's working directory unless it starts with "/".
+     * @return The inode number, or -1 if the file was not found.
+     */
+    private static int findTargetInode(String pathName) {
         
-        return targetBlock;
+        //Each directory keeps a name index, so every component is a hash
+        //lookup rather than a scan of the directory.
+        return filesys.lookupPath(cwd(), pathName);
         
     }
     
     //************End code added by Brett Duncan*********************//
 
+    /** Finds the directory that is to hold a new file or directory, and
+     * checks its name.  Prints a message if something is wrong.
+     * @param pathName the name of the new file or directory.
+     * @return the inode number of the directory, or -1 on error.
+     */
+    private static int findParent(String pathName) {
+        String name = FileSys.baseName(pathName);
+        if (name == null) {
+            doOutput("Kernel: User error: Missing file name.\n");
+            return -1;
+        }
+        if (name.getBytes().length > READDIR_NAME_SIZE) {
+            doOutput("Kernel: User error: File name too long!\n");
+            return -1;
+        }
+        int dir = filesys.lookupParent(cwd(), pathName);
+        if (dir == -1) {
+            doOutput("Kernel: User error: Directory not found.\n");
+        }
+        return dir;
+    } // findParent(String)
+
+    /** Creates a file, directory or symlink and enters it in the directory
+     * that is to hold it.  Prints a message if something is wrong.
+     * @param pathName the name of the new file.
+     * @param type Inode.ORDINARY, Inode.DIRECTORY or Inode.SYMLINK.
+     * @param target the target of a new symlink; otherwise null.
+     * @return the inode of the new file, or null on error.
+     */
+    private static Inode createEntry(String pathName, byte type,
+            String target)
+    {
+        int dir = findParent(pathName);
+        if (dir == -1) {
+            return null;
+        }
+        String name = FileSys.baseName(pathName);
+
+        //Nobody else may add the same name while we are at it.
+        Lock lock = filesys.getLocks().writeLock(dir);
+        lock.lock();
+        try {
+            if (!filesys.isDirectory(dir)) {
+                //It was removed after findParent() found it.
+                doOutput("Kernel: User error: Directory not found.\n");
+                return null;
+            }
+            int existingInode = filesys.lookup(dir, name);
+            if (existingInode != -1) {
+                doOutput("Kernel: User error: File name already exists as "
+                        + "inode " + existingInode + "!\n");
+                return null;
+            }
+
+            Inode inode = filesys.allocateInode();
+            if (inode == null) {
+                doOutput("Kernel: User error: Too many files!\n");
+                return null;
+            }
+            inode.type = type;
+            boolean ok;
+            switch (type) {
+            case Inode.DIRECTORY:
+                ok = filesys.initDirectory(inode, dir);
+                break;
+            case Inode.SYMLINK:
+                ok = filesys.writeLink(inode, target);
+                break;
+            default:
+                filesys.writeInode(inode);
+                ok = true;
+                break;
+            }
+            if (ok && filesys.link(dir, name, inode)) {
+                return inode;
+            }
+
+            //The new file cannot be reached by anyone else yet, so it can
+            //be freed without its lock.
+            if (ok && type == Inode.DIRECTORY) {
+                filesys.freeDirectory(
+                        filesys.getDirectory(inode.getNumber()));
+            } else {
+                filesys.freeInode(inode);
+            }
+            doOutput("Kernel: User error: Disk is full!\n");
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    } // createEntry(String, byte, String)
+
+    /** Creates an empty directory.
+     * @param pathName the name of the new directory.
+     * @return 0 if successful, -1 if there was an error.
+     */
+    private static int doMkdir(String pathName) {
+        return createEntry(pathName, Inode.DIRECTORY, null) == null ? -1 : 0;
+    } // doMkdir(String)
+
+    /** Removes an empty directory.
+     * @param pathName the name of the directory.
+     * @return 0 if successful, -1 if there was an error.
+     */
+    private static int doRmdir(String pathName) {
+        int parent = filesys.lookupParent(cwd(), pathName);
+        String name = FileSys.baseName(pathName);
+        InodeLocks locks = filesys.getLocks();
+        for (;;) {
+            int number = (parent == -1 ? -1 : filesys.lookup(parent, name));
+            if (number == -1 || !filesys.isDirectory(number)) {
+                doOutput("Kernel: User error: Directory not found.\n");
+                return -1;
+            }
+            if (name.equals(".") || name.equals("..")
+                    || number == FileSys.ROOT_INODE) {
+                doOutput("Kernel: User error: Cannot remove " + pathName
+                        + ".\n");
+                return -1;
+            }
+
+            locks.lock(parent, number);
+            try {
+                if (filesys.lookup(parent, name) != number) {
+                    continue;
+                }
+                Directory dir = filesys.getDirectory(number);
+                if (dir.size() > 2) {
+                    doOutput("Kernel: User error: Directory not empty.\n");
+                    return -1;
+                }
+                synchronized (processes) {
+                    for (ProcessState p : processes.values()) {
+                        if (p.cwd == number) {
+                            doOutput("Kernel: User error: "
+                                    + "Directory is in use.\n");
+                            return -1;
+                        }
+                    }
+                }
+                filesys.unlink(parent, name);
+                filesys.freeDirectory(dir);
+            } finally {
+                locks.unlock(parent, number);
+            }
+            return 0;
+        }
+    } // doRmdir(String)
+
+    /** Changes the working directory of the calling process.
+     * @param pathName the name of the new working directory.
+     * @return 0 if successful, -1 if there is no such directory.
+     */
+    private static int doChdir(String pathName) {
+        int number = findTargetInode(pathName);
+        if (number == -1 || !filesys.isDirectory(number)) {
+            doOutput("Kernel: User error: Directory not found.\n");
+            return -1;
+        }
+        process().cwd = number;
+        return 0;
+    } // doChdir(String)
+
+    /** Creates a symbolic link.
+     * @param target the pathname the link refers to.
+     * @param pathName the name of the new link.
+     * @return 0 if successful, -1 if there was an error.
+     */
+    private static int doSymlink(String target, String pathName) {
+        if (target == null || target.length() == 0) {
+            doOutput("Kernel: User error: Missing link target.\n");
+            return -1;
+        }
+        if (target.getBytes().length > Disk.BLOCK_SIZE) {
+            doOutput("Kernel: User error: Link target too long!\n");
+            return -1;
+        }
+        return createEntry(pathName, Inode.SYMLINK, target) == null ? -1 : 0;
+    } // doSymlink(String, String)
+
+    /** Copies the target of a symbolic link into buffer.
+     * @param pathName the name of the link.
+     * @param buffer the destination for the target.
+     * @return 0 if successful, -1 if there was an error.
+     */
+    private static int doReadlink(String pathName, byte buffer[]) {
+        int number = filesys.lookupLink(cwd(), pathName);
+        String target = (number == -1 ? null : filesys.readLink(number));
+        if (target == null || buffer == null) {
+            doOutput("Kernel: User error: Not a symbolic link.\n");
+            return -1;
+        }
+        byte bytes[] = target.getBytes();
+        Arrays.fill(buffer, (byte) 0);
+        System.arraycopy(bytes, 0, buffer, 0,
+                Math.min(bytes.length, buffer.length));
+        return 0;
+    } // doReadlink(String, byte[])
+
+    /** Opens a file for the calling process.
+     * @param pathName the name of the file.
+     * @return a file descriptor, or ERROR_NO_SUCH_FILE,
+     * ERROR_NOT_ORDINARY_FILE or ERROR_TOO_MANY_FILES.
+     */
+    private static int doOpen(String pathName) {
+        int number = findTargetInode(pathName);
+        if (number == -1) {
+            return ERROR_NO_SUCH_FILE;
+        }
+        if (filesys.readInode(number).getType() != Inode.ORDINARY) {
+            return ERROR_NOT_ORDINARY_FILE;
+        }
+        OpenFile table[] = process().files;
+        for (int fd = 0; fd < table.length; fd++) {
+            if (table[fd] == null) {
+                table[fd] = new OpenFile(filesys.open(number));
+                return fd;
+            }
+        }
+        return ERROR_TOO_MANY_FILES;
+    } // doOpen(String)
+
+    /** Closes a file descriptor of the calling process.
+     * @param fd the file descriptor.
+     * @return zero, or ERROR_BAD_ARGUMENT if fd is not open.
+     */
+    private static int doClose(int fd) {
+        OpenFile file = openFile(fd);
+        if (file == null) {
+            return ERROR_BAD_ARGUMENT;
+        }
+        process().files[fd] = null;
+        filesys.close(file.inode);
+        return 0;
+    } // doClose(int)
+
+    /** Moves the position of an open file.  The position may be past the end
+     * of the file; a write there fills the gap with zeros.
+     * @param fd the file descriptor.
+     * @param offset the new position, relative to whence.
+     * @param whence SEEK_SET, SEEK_CUR or SEEK_END.
+     * @return the new position, ERROR_BAD_ARGUMENT if fd is not open or
+     * whence is invalid, or ERROR_OUT_OF_RANGE if the position would be
+     * negative.
+     */
+    private static int doSeek(int fd, int offset, int whence) {
+        OpenFile file = openFile(fd);
+        if (file == null) {
+            return ERROR_BAD_ARGUMENT;
+        }
+        long position;
+        switch (whence) {
+        case SEEK_SET:
+            position = offset;
+            break;
+        case SEEK_CUR:
+            position = (long) file.offset + offset;
+            break;
+        case SEEK_END:
+            position = (long) file.inode.getSize() + offset;
+            break;
+        default:
+            return ERROR_BAD_ARGUMENT;
+        }
+        if (position < 0 || position > Integer.MAX_VALUE) {
+            return ERROR_OUT_OF_RANGE;
+        }
+        file.offset = (int) position;
+        return file.offset;
+    } // doSeek(int, int, int)
+
+    /** Reads from an open file into part of a buffer, starting at the file's
+     * current position, and advances the position past the data read.
+     * @param fd the file descriptor.
+     * @param buffer the destination for the data.
+     * @param offset where in buffer to put the first byte, or null for 0.
+     * @param length the most bytes to read, or null to fill the rest of
+     * buffer.
+     * @return the number of bytes read, ERROR_BAD_ARGUMENT if fd is not
+     * open, or ERROR_OUT_OF_RANGE if offset and length do not fit in buffer.
+     */
+    private static int doReadFd(int fd, byte buffer[],
+            Integer offset, Integer length)
+    {
+        OpenFile file = openFile(fd);
+        if (file == null || buffer == null) {
+            return ERROR_BAD_ARGUMENT;
+        }
+        int start = (offset == null ? 0 : offset);
+        if (!inRange(buffer, start, length)) {
+            return ERROR_OUT_OF_RANGE;
+        }
+        Lock lock = filesys.getLocks().readLock(file.inode.getNumber());
+        lock.lock();
+        int n;
+        try {
+            n = filesys.readFile(file.inode, file.offset, buffer, start,
+                    length == null ? buffer.length - start : length,
+                    file.readAhead);
+        } finally {
+            lock.unlock();
+        }
+        file.offset += n;
+        return n;
+    } // doReadFd(int, byte[], Integer, Integer)
+
+    /** Writes part of a buffer to an open file, starting at the file's
+     * current position, and advances the position past the data written.
+     * @param fd the file descriptor.
+     * @param buffer the data to write.
+     * @param offset where in buffer the data starts, or null for 0.
+     * @param length the number of bytes to write, or null to write the rest
+     * of buffer.
+     * @return the number of bytes written, ERROR_BAD_ARGUMENT if fd is not
+     * open, or ERROR_OUT_OF_RANGE if offset and length do not fit in buffer.
+     */
+    private static int doWriteFd(int fd, byte buffer[],
+            Integer offset, Integer length)
+    {
+        OpenFile file = openFile(fd);
+        if (file == null || buffer == null) {
+            return ERROR_BAD_ARGUMENT;
+        }
+        int start = (offset == null ? 0 : offset);
+        if (!inRange(buffer, start, length)) {
+            return ERROR_OUT_OF_RANGE;
+        }
+        Lock lock = filesys.getLocks().writeLock(file.inode.getNumber());
+        lock.lock();
+        int n;
+        try {
+            n = filesys.writeFile(file.inode, file.offset, buffer, start,
+                    length == null ? buffer.length - start : length);
+        } finally {
+            lock.unlock();
+        }
+        file.offset += n;
+        return n;
+    } // doWriteFd(int, byte[], Integer, Integer)
+
+    /** Checks that part of a buffer named in a system call lies within it.
+     * @param buffer the buffer.
+     * @param offset where the part starts.
+     * @param length its length, or null for the rest of the buffer.
+     * @return true if the part is valid.
+     */
+    private static boolean inRange(byte buffer[], int offset, Integer length) {
+        if (offset < 0 || offset > buffer.length) {
+            return false;
+        }
+        return length == null
+            || (length >= 0 && length <= buffer.length - offset);
+    } // inRange(byte[], int, Integer)
+
+    /** Finds the state of the calling process, creating it if this is the
+     * process's first system call that needs it.  After the first call, the
+     * state is found without taking any lock.
+     * @return the state.
+     */
+    private static ProcessState process() {
+        ProcessState p = currentProcess.get();
+        if (p == null) {
+            synchronized (processes) {
+                p = processes.get(Thread.currentThread());
+                if (p == null) {
+                    p = new ProcessState(FileSys.ROOT_INODE);
+                    processes.put(Thread.currentThread(), p);
+                }
+            }
+            currentProcess.set(p);
+        }
+        return p;
+    } // process()
+
+    /** Makes a process the one the calling thread runs.  A thread from a
+     * pool runs many processes in turn, and the shell started at power on
+     * runs in the thread that powered on, so the thread's previous process
+     * is handed back to be restored by leaveProcess().
+     * @param p the state of the process.
+     * @return the state of the process the thread was running, or null.
+     */
+    private static ProcessState enterProcess(ProcessState p) {
+        ProcessState previous = currentProcess.get();
+        synchronized (processes) {
+            processes.put(Thread.currentThread(), p);
+        }
+        currentProcess.set(p);
+        return previous;
+    } // enterProcess(ProcessState)
+
+    /** Ends the process the calling thread is running.
+     * @param previous what enterProcess() returned.
+     */
+    private static void leaveProcess(ProcessState previous) {
+        synchronized (processes) {
+            if (previous == null) {
+                processes.remove(Thread.currentThread());
+            } else {
+                processes.put(Thread.currentThread(), previous);
+            }
+        }
+        if (previous == null) {
+            currentProcess.remove();
+        } else {
+            currentProcess.set(previous);
+        }
+    } // leaveProcess(ProcessState)
+
+    /** Returns the working directory of the calling process.
+     * @return the inode number of the directory.
+     */
+    private static int cwd() {
+        return process().cwd;
+    } // cwd()
+
+    /** Finds an open file of the calling process.
+     * @param fd the file descriptor.
+     * @return the open file, or null if fd is not open.
+     */
+    private static OpenFile openFile(int fd) {
+        if (fd < 0 || fd >= MAX_OPEN_FILES) {
+            return null;
+        }
+        return process().files[fd];
+    } // openFile(int)
+
+    /** The per-process state the kernel keeps. */
+    static private class ProcessState {
+        /** The open files, indexed by file descriptor. */
+        final OpenFile files[] = new OpenFile[MAX_OPEN_FILES];
+
+        /** The inode number of the working directory.  Read by other
+         * processes, to see whether a directory may be removed.
+         */
+        volatile int cwd;
+
+        /** The nice value, which processes started by this one inherit. */
+        int nice;
+
+        /** The scheduling state, or null if there is no Dispatcher or the
+         * Kernel did not start this process.
+         */
+        Dispatcher.Task task;
+
+        /** Creates a new ProcessState with no open files.
+         * @param cwd the inode number of the working directory.
+         */
+        ProcessState(int cwd) {
+            this.cwd = cwd;
+        } // ProcessState.ProcessState(int)
+    } // class ProcessState
+
+    /** A daemon thread that calls doWriteBehind() every FLUSH_INTERVAL and
+     * doCheckpoint() every CHECKPOINT_INTERVAL milliseconds until it is
+     * halted at shutdown.
+     */
+    static private class Flusher extends Thread {
+        /** Set by halt().  Checked once formatLock is held, since a Flusher
+         * that was waiting for the lock while doShutdown held it would
+         * otherwise go on to write to a file system that has been unmounted.
+         */
+        private volatile boolean stopped;
+
+        /** Creates a new Flusher. */
+        public Flusher() {
+            super("Flusher");
+            setDaemon(true);
+        } // Flusher.Flusher()
+
+        /** Main loop of the Flusher */
+        public void run() {
+            long lastCheckpoint = System.currentTimeMillis();
+            try {
+                for (;;) {
+                    sleep(FLUSH_INTERVAL);
+                    formatLock.readLock().lock();
+                    try {
+                        if (stopped) {
+                            return;
+                        }
+                        long now = System.currentTimeMillis();
+                        if (now - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                            doCheckpoint();
+                            lastCheckpoint = now;
+                        } else {
+                            doWriteBehind();
+                        }
+                    } finally {
+                        formatLock.readLock().unlock();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Shutting down.
+            }
+        } // Flusher.run()
+
+        /** Stops the Flusher.  Called by doShutdown() before it unmounts the
+         * file system.
+         */
+        public void halt() {
+            stopped = true;
+            interrupt();
+        } // Flusher.halt()
+    } // class Flusher
+
     /** A Launcher instance represents one atomic command being run by the
      * Kernel.  It has associated with it a process id (pid), a Java method
      * to run, and a list of arguments to the method.
-     * Do not modify any part of this class.
+     * <p>
+     * The process table takes no locks.  Pids come from an atomic counter
+     * and the table is a ConcurrentHashMap, so starting, joining and
+     * listing processes can all happen at once.  When a process finishes,
+     * it completes its exit future with its return code, which is all a
+     * join waits on; waiting for every process is a matter of waiting for
+     * the count of unfinished ones to reach zero.
+     * <p>
+     * Each process normally gets a thread of its own.  After
+     * useVirtualThreads(), processes are handed to an executor that runs
+     * each one as a virtual thread, or, on a Java runtime without them, to
+     * a pool of ordinary threads.  The Java 8 class library does not have
+     * virtual threads, so they are found by reflection.
      */
-    static private class Launcher extends Thread {
-        /** Mapping of process ids to Launcher instances. */
-        static Map<Integer,Launcher> pidMap = new HashMap<Integer,Launcher>();
+    static private class Launcher implements Runnable {
+        /** Mapping of process ids to Launcher instances.  A process stays
+         * here after it finishes until it is joined.
+         */
+        static final Map<Integer,Launcher> pidMap
+            = new ConcurrentHashMap<Integer,Launcher>();
 
         /** Source of unique ids for Launcher instances. */
-        static private int nextpid = 1;
+        static private final AtomicInteger nextpid = new AtomicInteger(1);
+
+        /** The number of Launchers that have been created and have not
+         * finished.
+         */
+        static private final AtomicInteger running = new AtomicInteger();
+
+        /** Held by joinAll() while it checks running, and by the last
+         * Launcher to finish while it signals idle.
+         */
+        static private final ReentrantLock idleLock = new ReentrantLock();
+
+        /** Signalled when running drops to zero. */
+        static private final Condition idle = idleLock.newCondition();
+
+        /** The number of threads a pool keeps waiting for processes. */
+        static public final int WARM_WORKERS = 16;
+
+        /** Runs processes, or null to give each a new thread. */
+        static private volatile ExecutorService executor;
 
         /** The method being run by this command. */
-        private Method method;
+        private final MethodHandle main;
 
         /** The list of arguments to this command. */
-        private Object arglist[];
+        private final String args[];
 
         /** The process id of this command. */
         private int pid;
@@ -749,61 +1851,162 @@ public class Kernel {
          */
         private int returnCode = 0;
 
+        /** Completed with the return code when the command finishes. */
+        private final CompletableFuture<Integer> exit
+            = new CompletableFuture<Integer>();
+
+        /** The open files and working directory of this command. */
+        private final ProcessState state;
+
         /** Creates a new Launcher for a program.
          * @param command the name of the program (new name of a class with
          * a main(String[]) method.
          * @param args command-line arguments to the program.
          */
         public Launcher(String command, String args[])
-                throws ClassNotFoundException, NoSuchMethodException
+                throws ClassNotFoundException, NoSuchMethodException,
+                    IllegalAccessException
         {
             /* If the user supplied no args, make a dummy. */
             if (args==null) {
                 args = new String[0];
             }
+            this.args = args;
 
-            /* Create an array of the method types */
-            Class params[] = new Class[] { args.getClass() };
+            /* Find the program's main method, if it has not been run yet */
+            main = ProgramRegistry.find(command);
 
-            /* Find the program and look up its main method */
-            Class programClass = Class.forName(command);
-            method = programClass.getMethod("main",params); 
+            /* Start in the working directory of the caller. */
+            ProcessState parent = process();
+            state = new ProcessState(parent.cwd);
+            state.nice = parent.nice;
 
-            /* Assemble an argument list for the method. */
-            arglist = new Object[] { args };
-
-            pid = nextpid++;
-            synchronized (pidMap) {
+            // Count the process before it has a pid, so that joinAll() cannot
+            // miss it.
+            running.incrementAndGet();
+            try {
+                pid = nextpid.getAndIncrement();
+                if (dispatcher != null) {
+                    state.task = dispatcher.newTask(pid, command, state.nice);
+                }
                 pidMap.put(pid, this);
+            } catch (RuntimeException | Error e) {
+                finished();
+                throw e;
             }
         } // Launcher.Launcher(String, String[])
 
+        /** Switches to running each process as a virtual thread, or in a
+         * pool of threads if there are no virtual threads.
+         * @return a description of what processes will be run as.
+         */
+        static public String useVirtualThreads() {
+            try {
+                Object builder
+                    = Thread.class.getMethod("ofVirtual").invoke(null);
+                Object factory = Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+                executor = (ExecutorService) Executors.class.getMethod(
+                        "newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+                return "virtual threads";
+            } catch (Exception e) {
+                // Not available in this version of Java.
+                return usePool() + " (no virtual threads)";
+            }
+        } // Launcher.useVirtualThreads()
+
+        /** Switches to running processes in a pool of threads, starting
+         * WARM_WORKERS of them now.  The pool grows when more processes
+         * than that are running, and threads beyond WARM_WORKERS that have
+         * been idle for a minute go away.
+         * @return a description of the pool.
+         */
+        static public String usePool() {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    WARM_WORKERS, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>());
+            pool.prestartAllCoreThreads();
+            executor = pool;
+            return "a pool of " + WARM_WORKERS + " warm threads";
+        } // Launcher.usePool()
+
+        /** Starts the command running in the background.
+         * @return false if it could not be started.
+         */
+        public boolean start() {
+            try {
+                if (executor == null) {
+                    new Thread(this, "pid " + pid).start();
+                } else {
+                    executor.execute(this);
+                }
+                return true;
+            } catch (RuntimeException | Error e) {
+                // Out of threads, or the executor has been shut down.
+                out.printf("Kernel: %s\n", e);
+                pidMap.remove(pid);
+                exit.complete(ERROR_BAD_COMMAND);
+                finished();
+                return false;
+            }
+        } // Launcher.start()
+
         /** Main loop of the Launcher */
         public void run() {
-            /* Launch the method using the arglist */
+            ProcessState previous = enterProcess(state);
+            if (state.task != null) {
+                dispatcher.admit(state.task);
+            }
+            /* Launch the method using the args */
             try {
-                method.invoke(null,arglist);
-            } catch (InvocationTargetException e) {
+                main.invokeExact(args);
+            } catch (Throwable e) {
                 /* Give the user a message */
                 out.println("Kernel: User error:");
-                e.getTargetException().printStackTrace();
+                e.printStackTrace();
 
                 returnCode = ERROR_IN_CHILD;
-            } catch (Exception e) {
-                out.printf("Kernel: %s\n", e);
-                returnCode = ERROR_IN_CHILD;
+            } finally {
+                if (state.task != null) {
+                    dispatcher.exit(state.task);
+                }
+                leaveProcess(previous);
+                exit.complete(returnCode);
+                finished();
             }
         } // Launcher.run()
 
-        /** Waits for <em>all</em> existing Launchers to complete. */
-        static public void joinAll() {
-            for (Launcher l : pidMap.values()) {
+        /** Counts a Launcher as finished, waking joinAll() if it was the
+         * last.
+         */
+        static private void finished() {
+            if (running.decrementAndGet() == 0) {
+                idleLock.lock();
                 try {
-                    l.join();
-                } catch (InterruptedException ex) {
-                    out.printf("Kernel: join: %s\n", ex);
-                    ex.printStackTrace();
+                    idle.signalAll();
+                } finally {
+                    idleLock.unlock();
+                }
+            }
+        } // Launcher.finished()
+
+        /** Waits for <em>all</em> existing Launchers to complete, along with
+         * any they start before then.  Only the Kernel calls this, at the end
+         * of POWER_ON.
+         */
+        static public void joinAll() {
+            idleLock.lock();
+            try {
+                while (running.get() > 0) {
+                    idle.awaitUninterruptibly();
                 }
+            } finally {
+                idleLock.unlock();
+            }
+            ExecutorService e = executor;
+            if (e != null) {
+                e.shutdown();
             }
         } // Launcher.joinAll()
 
@@ -813,26 +2016,16 @@ public class Kernel {
          *      ERROR_NO_SUCH_PROCESS if the pid is invalid.
          */
         static public int joinOne(int pid) {
-            Launcher l;
-            synchronized (pidMap) {
-                l = pidMap.remove(pid);
-            }
+            Launcher l = pidMap.remove(pid);
             if (l == null) {
                 return ERROR_NO_SUCH_PROCESS;
             }
-            try {
-                l.join();
-            } catch (InterruptedException e) {
-                out.printf("Kernel: join: %s\n", e);
-            }
-            return l.returnCode;
+            return l.exit.join();
         } // Launcher.joinOne(int)
 
         /** Removes this Launcher from the set of all active Launchers. */
         public void delete() {
-            synchronized (pidMap) {
-                pidMap.remove(pid);
-            }
+            pidMap.remove(pid);
         } // Launcher.delete()
     } // class Launcher
 } // class Kernel
@@ -42,7 +42,10 @@ public class Library {
         "End of file on console input", // ERROR_END_OF_FILE = -6
         "I/O error on console input",   // ERROR_IO = -7
         "Exception in user program",    // ERROR_IN_CHILD = -8
-        "No such process"               // ERROR_NO_SUCH_PROCESS = -9
+        "No such process",              // ERROR_NO_SUCH_PROCESS = -9
+        "No such file",                 // ERROR_NO_SUCH_FILE = -10
+        "Too many open files",          // ERROR_TOO_MANY_FILES = -11
+        "Not an ordinary file"          // ERROR_NOT_ORDINARY_FILE = -12
     };
 
     /** Performs SYSCALL_OUTPUT.
@@ -55,6 +58,26 @@ public class Library {
             Kernel.SYSCALL_OUTPUT, 0, s, null, null);
     } // output
 
+    /** Performs SYSCALL_OUTPUT with bytes rather than a String.
+     * @param bytes the bytes to display.
+     * @param offset where in bytes to start.
+     * @param length the number of bytes to display.
+     * @return zero or ERROR_OUT_OF_RANGE.
+     */
+    public static int output(byte[] bytes, int offset, int length) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_OUTPUT, offset, null, length, bytes);
+    } // output(byte[], int, int)
+
+    /** Performs SYSCALL_FLUSH.
+     * Makes any buffered console output appear.
+     * @return zero
+     */
+    public static int flush() {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_FLUSH, 0, null, null, null);
+    } // flush
+
     /** Performs SYSCALL_INPUT.
      * Waits for the user to type some text and hit [return].
      * The input line is returned in the supplied StringBuffer
@@ -125,8 +148,8 @@ public class Library {
      * @return 0 on success and -1 on failure.
      */
     public static int chdir(String pathname) {
-        err.println("chdir system call not implemented yet");
-        return -1;
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_CHDIR, 0, pathname, null, null);
     } // chdir(String)
 
     /** Creates a new "ordinary" file.
@@ -140,7 +163,7 @@ public class Library {
         //************Code added by Brett Duncan*********************//
         
         return Kernel.interrupt(
-                Kernel.INTERRUPT_USER, Kernel.SYSCALL_CREATE, 0, null, null, pathname.getBytes());
+                Kernel.INTERRUPT_USER, Kernel.SYSCALL_CREATE, 0, pathname, null, null);
         //************End code added by Brett Duncan*********************//
         
     } // create(String)
@@ -148,7 +171,8 @@ public class Library {
     /** Reads from a file.
      * @param pathname the name of the file to read from.
      * @param buffer the destination for the data.
-     * @return 0 on success and -1 on failure.
+     * @return the number of bytes read, or ERROR_NO_SUCH_FILE or
+     * ERROR_NOT_ORDINARY_FILE.
      */
     public static int read(String pathname, byte[] buffer) {
         
@@ -157,15 +181,31 @@ public class Library {
         
         //************Code added by Brett Duncan*********************//
         return Kernel.interrupt(
-                Kernel.INTERRUPT_USER, Kernel.SYSCALL_READ, 0, null, null, pathname.getBytes());
+                Kernel.INTERRUPT_USER, Kernel.SYSCALL_READ, 0, pathname, null, buffer);
         //************End code added by Brett Duncan*********************//
         
     } // read(String, byte[])
 
+    /** Reads the start of a file into part of a buffer.
+     * @param pathname the name of the file to read from.
+     * @param buffer the destination for the data.
+     * @param offset where in buffer to put the first byte.
+     * @param length the most bytes to read.
+     * @return the number of bytes read, or ERROR_NO_SUCH_FILE,
+     * ERROR_NOT_ORDINARY_FILE or ERROR_OUT_OF_RANGE.
+     */
+    public static int read(String pathname, byte[] buffer,
+            int offset, int length)
+    {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_READ, offset, pathname, length, buffer);
+    } // read(String, byte[], int, int)
+
     /** Writes to a file.
      * @param pathname the name of the file to write to.
      * @param buffer the source of the data.
-     * @return 0 on success and -1 on failure.
+     * @return the number of bytes written, or ERROR_NO_SUCH_FILE or
+     * ERROR_NOT_ORDINARY_FILE.
      */
     public static int write(String pathname, byte[] buffer) {
 //        err.println("write system call not implemented yet");
@@ -176,6 +216,21 @@ public class Library {
 //        return -1;
     } // write(String, byte[])
 
+    /** Replaces the contents of a file with part of a buffer.
+     * @param pathname the name of the file to write to.
+     * @param buffer the source of the data.
+     * @param offset where in buffer the data starts.
+     * @param length the number of bytes to write.
+     * @return the number of bytes written, or ERROR_NO_SUCH_FILE,
+     * ERROR_NOT_ORDINARY_FILE or ERROR_OUT_OF_RANGE.
+     */
+    public static int write(String pathname, byte[] buffer,
+            int offset, int length)
+    {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_WRITE, offset, pathname, length, buffer);
+    } // write(String, byte[], int, int)
+
     /** Deletes an "ordinary" file.
      * @param pathname the name of the file to delete.
      * @return 0 on success and -1 on failure.
@@ -191,8 +246,8 @@ public class Library {
      * @return 0 on success and -1 on failure.
      */
     public static int mkdir(String pathname) {
-        err.println("mkdir system call not implemented yet");
-        return -1;
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_MKDIR, 0, pathname, null, null);
     } // mkdir(String)
 
     /** Removes a directory.  The directory must be empty.
@@ -200,8 +255,8 @@ public class Library {
      * @return 0 on success and -1 on failure.
      */
     public static int rmdir(String pathname) {
-        err.println("rmdir system call not implemented yet");
-        return -1;
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_RMDIR, 0, pathname, null, null);
     } // rmdir(String)
 
     /** Creates a symbolic link.
@@ -211,8 +266,8 @@ public class Library {
      * @return 0 on success and -1 on failure.
      */
     public static int symlink(String oldName, String newName) {
-        err.println("symlink system call not implemented yet");
-        return -1;
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_SYMLINK, 0, oldName, newName, null);
     } // symlink(String,String)
 
     /** Reads the contents of a symbolic link.
@@ -221,21 +276,133 @@ public class Library {
      * @return 0 on success and -1 on failure.
      */
     public static int readlink(String pathname, byte[] buffer) {
-        err.println("readlink system call not implemented yet");
-        return -1;
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_READLINK, 0, pathname, null, buffer);
     } // readlink(String, byte[])
 
+    /** Changes the scheduling priority of the calling process.
+     * @param nice the new nice value, from Kernel.MIN_NICE (most favored)
+     * to Kernel.MAX_NICE.
+     * @return 0 on success, or ERROR_OUT_OF_RANGE.
+     */
+    public static int nice(int nice) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_NICE, nice, null, null, null);
+    } // nice(int)
+
+    /** Gets the scheduling priority of the calling process.
+     * @return the nice value, from Kernel.MIN_NICE to Kernel.MAX_NICE.
+     */
+    public static int getNice() {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_GETNICE, 0, null, null, null);
+    } // getNice()
+
     /** Reads the contents of a directory.
      * @param pathname the name of the directory.
      * @param buffer the destination for its contents.
-     * @return 0 on success and -1 on failure.
+     * @return the number of entries read, or -1 on failure.
      */
     public static int readdir(String pathname, byte[] buffer) {
-        return Kernel.interrupt(Kernel.INTERRUPT_USER, Kernel.SYSCALL_READDIR,
-                                                       0, null, null, null);
-//        return -1;
+        return readdir(pathname, buffer, 0);
     } // readdir(String, byte[])
 
+    /** Performs SYSCALL_READDIR.
+     * Reads the contents of a directory, starting part way through.
+     * @param pathname the name of the directory.
+     * @param buffer the destination for its contents.
+     * @param start the number of entries to skip.
+     * @return the number of entries read, or -1 on failure.  If fewer than
+     * buffer.length / Kernel.READDIR_ENTRY_SIZE were read, there are no
+     * more.
+     */
+    public static int readdir(String pathname, byte[] buffer, int start) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_READDIR, start, pathname, null, buffer);
+    } // readdir(String, byte[], int)
+
+    /** Performs SYSCALL_OPEN.
+     * Opens a file, positioned at its beginning.
+     * @param pathname the name of the file.
+     * @return a non-negative file descriptor, or ERROR_NO_SUCH_FILE,
+     * ERROR_NOT_ORDINARY_FILE or ERROR_TOO_MANY_FILES.
+     */
+    public static int open(String pathname) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_OPEN, 0, pathname, null, null);
+    } // open(String)
+
+    /** Performs SYSCALL_CLOSE.
+     * @param fd a file descriptor returned by open.
+     * @return zero or ERROR_BAD_ARGUMENT.
+     */
+    public static int close(int fd) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_CLOSE, fd, null, null, null);
+    } // close(int)
+
+    /** Performs SYSCALL_SEEK.
+     * Moves the position at which the next read or write of an open file
+     * starts.
+     * @param fd a file descriptor returned by open.
+     * @param offset the new position, relative to whence.
+     * @param whence Kernel.SEEK_SET, Kernel.SEEK_CUR or Kernel.SEEK_END.
+     * @return the new position, or ERROR_BAD_ARGUMENT or ERROR_OUT_OF_RANGE.
+     */
+    public static int seek(int fd, int offset, int whence) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_SEEK, fd, offset, whence, null);
+    } // seek(int, int, int)
+
+    /** Performs SYSCALL_READ_FD.
+     * Reads from an open file at its current position.
+     * @param fd a file descriptor returned by open.
+     * @param buffer the destination for the data.
+     * @return the number of bytes read (zero at the end of the file), or
+     * ERROR_BAD_ARGUMENT.
+     */
+    public static int read(int fd, byte[] buffer) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_READ_FD, fd, null, null, buffer);
+    } // read(int, byte[])
+
+    /** Performs SYSCALL_READ_FD into part of a buffer.
+     * @param fd a file descriptor returned by open.
+     * @param buffer the destination for the data.
+     * @param offset where in buffer to put the first byte.
+     * @param length the most bytes to read.
+     * @return the number of bytes read (zero at the end of the file), or
+     * ERROR_BAD_ARGUMENT or ERROR_OUT_OF_RANGE.
+     */
+    public static int read(int fd, byte[] buffer, int offset, int length) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_READ_FD, fd, offset, length, buffer);
+    } // read(int, byte[], int, int)
+
+    /** Performs SYSCALL_WRITE_FD.
+     * Writes to an open file at its current position.
+     * @param fd a file descriptor returned by open.
+     * @param buffer the data to write.
+     * @return the number of bytes written, or ERROR_BAD_ARGUMENT.
+     */
+    public static int write(int fd, byte[] buffer) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_WRITE_FD, fd, null, null, buffer);
+    } // write(int, byte[])
+
+    /** Performs SYSCALL_WRITE_FD from part of a buffer.
+     * @param fd a file descriptor returned by open.
+     * @param buffer the data to write.
+     * @param offset where in buffer the data starts.
+     * @param length the number of bytes to write.
+     * @return the number of bytes written, or ERROR_BAD_ARGUMENT or
+     * ERROR_OUT_OF_RANGE.
+     */
+    public static int write(int fd, byte[] buffer, int offset, int length) {
+        return Kernel.interrupt(Kernel.INTERRUPT_USER,
+            Kernel.SYSCALL_WRITE_FD, fd, offset, length, buffer);
+    } // write(int, byte[], int, int)
+
     //************Code added by Brett Duncan*********************//
     public static void shutdown() {
         Kernel.interrupt(
@@ -0,0 +1,115 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.lang.System.*;
+
+/** A FastDisk whose contents stay in the DISK file.
+ * <p>
+ * Instead of reading the whole DISK file into memory when it starts and
+ * writing all of it back in flush(), a MappedDisk maps the file into the
+ * address space.  Starting up costs only the mapping, whatever the size of the
+ * disk; blocks are paged in by the operating system as they are first read,
+ * so the Java heap does not grow with the disk; and flush() forces out only
+ * the pages that have actually been modified.
+ * <p>
+ * Apart from that, a MappedDisk behaves exactly like a FastDisk: read and
+ * write complete before they return.
+ *
+ * @see FastDisk
+ */
+public class MappedDisk extends FastDisk {
+    /** The DISK file, held open for as long as the disk exists. */
+    private final RandomAccessFile file;
+
+    /** The contents of the DISK file, mapped read/write. */
+    private final MappedByteBuffer map;
+
+    /** Creates a new MappedDisk.
+     * If there is no DISK file, an empty one of the right size is created.
+     * @param size the total size of this disk, in blocks.
+     */
+    public MappedDisk(int size) {
+        super(size, false);
+        try {
+            File diskName = new File("DISK");
+            if (!diskName.exists()) {
+                out.println("Creating new disk");
+            } else if (diskName.length() != (long) size * BLOCK_SIZE) {
+                throw new DiskException(
+                    "File DISK exists but is the wrong size");
+            }
+            file = new RandomAccessFile(diskName, "rw");
+            long length = (long) size * BLOCK_SIZE;
+            // A new file is extended with zeros, which is a formatted disk.
+            file.setLength(length);
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } catch (IOException e) {
+            throw new DiskException("Cannot map DISK: " + e);
+        }
+    } // MappedDisk(int)
+
+    /** Copies consecutive blocks out of the DISK file.
+     * @param start the first block to read.
+     * @param count the number of blocks to read.
+     * @param buffer a data area to hold the data read.
+     * @param offset where in buffer to put the first block.
+     */
+    protected void readRun(int start, int count, byte buffer[], int offset) {
+        map.position(start * BLOCK_SIZE);
+        map.get(buffer, offset, count * BLOCK_SIZE);
+    } // readRun(int, int, byte[], int)
+
+    /** Copies consecutive blocks into the DISK file.
+     * @param start the first block to write.
+     * @param count the number of blocks to write.
+     * @param buffer a data area holding the data to be written.
+     * @param offset where in buffer the first block starts.
+     */
+    protected void writeRun(int start, int count, byte buffer[], int offset) {
+        map.position(start * BLOCK_SIZE);
+        map.put(buffer, offset, count * BLOCK_SIZE);
+    } // writeRun(int, int, byte[], int)
+
+    /** Formats the disk by filling it with zeros. */
+    public synchronized void format() {
+        byte zero[] = new byte[BLOCK_SIZE];
+        map.clear();
+        for (int i = 0; i < DISK_SIZE; i++) {
+            map.put(zero);
+        }
+        dirtyBlocks.set(0, DISK_SIZE);
+    } // format()
+
+    /** Writes the blocks modified since the last save to the DISK file.
+     * The mapping is forced, so only pages that have been written since the
+     * last save are transferred.
+     * @return the number of blocks written since the last save.
+     */
+    public synchronized int checkpoint() {
+        int count = dirtyBlocks.cardinality();
+        if (count > 0) {
+            map.force();
+            dirtyBlocks.clear();
+        }
+        return count;
+    } // checkpoint()
+
+    /** Forces modified blocks out to the DISK file.
+     * Also prints some statistics on disk operations.
+     */
+    public void flush() {
+        out.println("Syncing DISK file...");
+        int count = checkpoint();
+        out.printf("%d modified blocks saved\n", count);
+        out.printf(
+            "%d read operations (%d bytes) and %d write operations (%d bytes)"
+                + " performed\n",
+            readCount, bytesRead, writeCount, bytesWritten);
+    } // flush()
+} // MappedDisk
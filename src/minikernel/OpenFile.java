@@ -0,0 +1,51 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+/** One entry in a process's table of open files.
+ * <p>
+ * SYSCALL_OPEN looks up a file's name once and records the result here; the
+ * file descriptor it returns is the index of the entry in the process's
+ * table.  Reads and writes through the descriptor start at the entry's
+ * offset and advance it, and SYSCALL_SEEK moves it.  Each entry also keeps
+ * the read-ahead state of its stream of reads.
+ * <p>
+ * The inode is the file system's shared in-memory copy, so every process
+ * that has the file open sees the others' changes at once.
+ *
+ * @see Kernel#SYSCALL_OPEN
+ * @see FileSys#open(int)
+ */
+public class OpenFile {
+    /** The open file's inode. */
+    final Inode inode;
+
+    /** The position in the file of the next byte to read or write. */
+    int offset;
+
+    /** The read-ahead state of reads through this entry. */
+    final ReadAhead readAhead = new ReadAhead();
+
+    /** Creates a new OpenFile positioned at the start of the file.
+     * @param inode the inode of the file, as returned by FileSys.open().
+     */
+    public OpenFile(Inode inode) {
+        this.inode = inode;
+    } // OpenFile(Inode)
+
+    /** Returns the inode of the open file.
+     * @return the inode.
+     */
+    public Inode getInode() {
+        return inode;
+    }
+
+    /** Returns the current position in the file.
+     * @return the offset of the next byte to read or write.
+     */
+    public int getOffset() {
+        return offset;
+    }
+} // OpenFile
@@ -0,0 +1,63 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+import java.lang.invoke.*;
+import java.util.concurrent.*;
+
+/** The programs the Kernel has run, by class name.
+ * <p>
+ * Finding a program means loading its class and looking up its
+ * main(String[]) method, which takes far longer than running a short
+ * program.  The registry does it once per class and keeps the answer as a
+ * MethodHandle, which, unlike a reflected Method, is called without
+ * checking access or boxing its arguments on every call.  Running the same
+ * program again, as a shell script or pipeline does, is then a map lookup.
+ * <p>
+ * Entries are never dropped: a class, once loaded, does not change.
+ * Lookups take no lock, and two processes that start a new program at the
+ * same time may both look it up, which does no harm.
+ *
+ * @see Kernel#SYSCALL_EXEC
+ */
+public class ProgramRegistry {
+    /** The type of a main method. */
+    private static final MethodType MAIN_TYPE
+        = MethodType.methodType(void.class, String[].class);
+
+    /** The main method of each program found so far. */
+    private static final ConcurrentHashMap<String,MethodHandle> programs
+        = new ConcurrentHashMap<String,MethodHandle>();
+
+    /** No instances. */
+    private ProgramRegistry() {}
+
+    /** Finds the main method of a program.
+     * @param command the name of the program's class.
+     * @return a handle that calls its main(String[]) method.
+     * @throws ClassNotFoundException if there is no such class.
+     * @throws NoSuchMethodException if it has no public static main method.
+     * @throws IllegalAccessException if the class is not public.
+     */
+    public static MethodHandle find(String command)
+            throws ClassNotFoundException, NoSuchMethodException,
+                IllegalAccessException
+    {
+        MethodHandle main = programs.get(command);
+        if (main == null) {
+            main = MethodHandles.publicLookup().findStatic(
+                    Class.forName(command), "main", MAIN_TYPE);
+            programs.put(command, main);
+        }
+        return main;
+    } // find(String)
+
+    /** Returns the number of programs found so far.
+     * @return the count.
+     */
+    public static int size() {
+        return programs.size();
+    }
+} // ProgramRegistry
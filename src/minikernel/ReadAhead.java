@@ -0,0 +1,123 @@
+/**
+ * Written for the operating systems project.
+ */
+
+package minikernel;
+
+/** The read-ahead state of one stream of reads from a file.
+ * <p>
+ * Each read tells the ReadAhead which blocks of the file it covers.  A read
+ * that starts where the last one ended, or at the start of the file, is
+ * sequential; after one, the blocks that follow are prefetched into the
+ * buffer cache so that the next read finds them there.  The number of
+ * blocks prefetched, the window, starts at MIN_WINDOW and doubles, up to
+ * MAX_WINDOW, each time a read finds the blocks this stream prefetched for
+ * it still in the cache.  If the cache has already evicted more of them
+ * than it kept, the window is halved, and once it would drop below
+ * MIN_WINDOW read-ahead is turned off, since it only costs disk reads.  A
+ * read that is not sequential turns read-ahead off until the reader settles
+ * down again, and gives it a fresh start.
+ * <p>
+ * The cache may prefetch fewer blocks than were asked for; prefetched()
+ * records how many it did, so that the rest are asked for again later.
+ * Each open file has its own ReadAhead, so two processes reading the same
+ * file do not confuse each other's patterns.
+ *
+ * @see OpenFile
+ * @see FileSys#readFile(Inode, int, byte[], int, int, ReadAhead)
+ * @see BufferCache#prefetch(int, int)
+ */
+public class ReadAhead {
+    /** The window used after the first sequential read. */
+    public static final int MIN_WINDOW = 2;
+
+    /** The largest window. */
+    public static final int MAX_WINDOW = 32;
+
+    /** The file block a sequential read would start at, or -1. */
+    private int nextBlock = -1;
+
+    /** The number of blocks to keep prefetched, or 0 if the reader is not
+     * sequential or read-ahead is off.
+     */
+    private int window;
+
+    /** True if read-ahead has been turned off because the blocks it
+     * prefetched were evicted before they were read.
+     */
+    private boolean off;
+
+    /** The file block after the last one prefetched. */
+    private int prefetchedTo;
+
+    /** Returns the file block after the last one prefetched.
+     * @return the block number; the blocks from the start of a sequential
+     * read up to here were prefetched for it.
+     */
+    public int getPrefetchedTo() {
+        return prefetchedTo;
+    }
+
+    /** Records a read and decides what to prefetch.
+     * @param first the first file block the read covers.
+     * @param last the last file block the read covers.
+     * @param kept how many of the blocks the read covers that were
+     * prefetched for it are still cached.
+     * @param lost how many of them have been evicted.
+     * @return the file blocks to prefetch, as a two-element array holding the
+     * first block and the number of blocks, or null if nothing should be
+     * prefetched.
+     */
+    public int[] access(int first, int last, int kept, int lost) {
+        boolean sequential = (first == nextBlock);
+        nextBlock = last + 1;
+        if (!sequential) {
+            window = 0;
+            prefetchedTo = 0;
+            off = false;
+            if (first != 0) {
+                return null;
+            }
+        }
+        if (off) {
+            return null;
+        }
+
+        if (window == 0) {
+            window = MIN_WINDOW;
+        } else if (lost > kept) {
+            window /= 2;
+            if (window < MIN_WINDOW) {
+                window = 0;
+                off = true;
+                return null;
+            }
+        } else if (kept > 0) {
+            window = Math.min(MAX_WINDOW, window * 2);
+        }
+
+        int start = Math.max(nextBlock, prefetchedTo);
+        int end = nextBlock + window;
+        if (start >= end) {
+            return null;
+        }
+        return new int[] { start, end - start };
+    } // access(int, int, int, int)
+
+    /** Records how much of what access() asked for was prefetched.
+     * @param start the first block prefetched.
+     * @param count the number of blocks prefetched.
+     */
+    public void prefetched(int start, int count) {
+        if (count > 0) {
+            prefetchedTo = start + count;
+        }
+    } // prefetched(int, int)
+
+    /** Returns the current window.
+     * @return the number of blocks kept prefetched, or 0.
+     */
+    public int getWindow() {
+        return window;
+    }
+} // ReadAhead